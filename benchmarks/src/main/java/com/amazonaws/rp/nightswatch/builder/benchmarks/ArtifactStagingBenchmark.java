@@ -0,0 +1,74 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.utils.ArtifactStager;
+import com.amazonaws.rp.nightswatch.builder.utils.PackageCompression;
+import com.amazonaws.rp.nightswatch.builder.utils.StagedArtifact;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The application package staging, the copy and the digests computed in the same pass,
+ * as well as the recompression by other codec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArtifactStagingBenchmark {
+    @Param({"1", "16", "64"})
+    public int sizeMB;
+
+    private final ArtifactStager stager = new ArtifactStager();
+
+    private File srcFile;
+    private URL src;
+    private URL gzipSrc;
+    private File dst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // half random and half repeated, compressible as a package is
+        byte[] content = new byte[this.sizeMB * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        for (int i = content.length / 2; i < content.length; i++)
+            content[i] = (byte) (i % 64);
+
+        this.srcFile = File.createTempFile("nw-bench-src", ".tar");
+        Files.write(this.srcFile.toPath(), content);
+        this.src = this.srcFile.toURI().toURL();
+
+        File gzipFile = File.createTempFile("nw-bench-src", ".tar.gz");
+        try (OutputStream out = PackageCompression.GZIP.compress(Files.newOutputStream(gzipFile.toPath()))) {
+            out.write(content);
+        }
+        this.gzipSrc = gzipFile.toURI().toURL();
+
+        this.dst = File.createTempFile("nw-bench-dst", ".tar.gz");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(this.srcFile.toPath());
+        Files.deleteIfExists(new File(this.gzipSrc.toURI()).toPath());
+        Files.deleteIfExists(this.dst.toPath());
+    }
+
+    @Benchmark
+    public StagedArtifact stage() throws IOException {
+        return this.stager.stage(this.src, this.dst);
+    }
+
+    @Benchmark
+    public StagedArtifact stageRecompressedZstd() throws IOException {
+        return this.stager.stage(this.gzipSrc, this.dst, PackageCompression.parse("zstd:3"));
+    }
+}
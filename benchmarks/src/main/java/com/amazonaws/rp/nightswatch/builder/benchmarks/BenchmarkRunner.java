@@ -0,0 +1,34 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler and writes the results in JSON,
+ * to `target/jmh-result.json` by default. The JMH command line options are accepted as well,
+ * e.g. a benchmark name pattern, `-p sizeMB=1` or `-rff <file>`.
+ */
+public class BenchmarkRunner {
+    public static void main(final String[] argv) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(argv);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .resultFormat(ResultFormatType.JSON);
+
+        if (!cmdOptions.getResult().hasValue())
+            options.result("target/jmh-result.json");
+
+        // the allocation rate, gc.alloc.rate.norm is the bytes allocated by each operation
+        if (cmdOptions.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,48 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.appota.CredentialsPackager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The credentials package zipping in memory, the key sizes stand for the RSA 2048 and 4096 bits PEM files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CredentialsPackagingBenchmark {
+    @Param({"1700", "3300"})
+    public int keySize;
+
+    private final CredentialsPackager packager = new CredentialsPackager();
+
+    private String certificatePem;
+    private byte[] publicKey;
+    private byte[] privateKey;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        this.certificatePem = pem(random, "CERTIFICATE", 1200);
+        this.publicKey = pem(random, "PUBLIC KEY", this.keySize / 4).getBytes();
+        this.privateKey = pem(random, "RSA PRIVATE KEY", this.keySize).getBytes();
+    }
+
+    @Benchmark
+    public byte[] pack() throws IOException {
+        return this.packager.pack(this.certificatePem, this.publicKey, this.privateKey);
+    }
+
+    private static String pem(final Random random, final String type, final int size) {
+        byte[] body = new byte[size * 3 / 4];
+        random.nextBytes(body);
+        return String.format("-----BEGIN %s-----\n%s\n-----END %s-----\n",
+                type, java.util.Base64.getMimeEncoder().encodeToString(body), type);
+    }
+}
@@ -0,0 +1,53 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.appota.DeviceKeyFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The device identities, a key pair and its certificate signing request, generated a second for each
+ * algorithm, one at a time and on the worker pool of the available processors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceKeyGenerationBenchmark {
+    private final static int BATCH = 64;
+
+    @Param({"EC_P256", "RSA_2048"})
+    public DeviceKeyFactory.Algorithm algorithm;
+
+    private DeviceKeyFactory factory;
+    private List<String> thingNames;
+    private int threads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.factory = new DeviceKeyFactory(this.algorithm);
+        this.threads = Runtime.getRuntime().availableProcessors();
+
+        this.thingNames = new ArrayList<>(BATCH);
+        for (int i = 1; i <= BATCH; i++)
+            this.thingNames.add(String.format("nw-app-ota-demo-dev-%05d", i));
+    }
+
+    @Benchmark
+    public DeviceKeyFactory.DeviceIdentity generate() {
+        return this.factory.generate("nw-app-ota-demo-dev-00001");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int generatePooled() throws InterruptedException {
+        AtomicInteger generated = new AtomicInteger();
+        this.factory.generate(this.thingNames, this.threads, identity -> generated.incrementAndGet());
+        return generated.get();
+    }
+}
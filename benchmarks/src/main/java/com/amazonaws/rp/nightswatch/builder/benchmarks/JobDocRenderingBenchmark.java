@@ -0,0 +1,42 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.appota.JobDocTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The job document rendering from the cached template, the compact form for the device
+ * and the indented form for the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobDocRenderingBenchmark {
+    @Param({"app_x64_containerized_v1", "app_x64_native_v2"})
+    public String variant;
+
+    private JobDocTemplate template;
+    private JobDocTemplate.Params params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.template = JobDocTemplate.load(String.format("nw-app-ota-demo/%s/deploy_app_xxx_pkg.json", this.variant));
+        this.params = new JobDocTemplate.Params("nw-app-ota-demo-dev-files-bench", null,
+                "app_xxx_pkg_bench.tar.gz", "80da25297bb6640e41a55a184ee6dec7", Boolean.TRUE);
+    }
+
+    @Benchmark
+    public byte[] render() throws IOException {
+        return this.template.render(this.params);
+    }
+
+    @Benchmark
+    public String renderForConsole() throws IOException {
+        return this.template.renderForConsole(this.params);
+    }
+}
@@ -0,0 +1,45 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.appota.SetupScriptTemplate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The setup script rendering with the pre-signed URLs, which are long with the security token, and the digests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetupScriptRenderingBenchmark {
+    @Param({"256", "2048"})
+    public int urlLength;
+
+    private SetupScriptTemplate template;
+    private SetupScriptTemplate.Asset credentials;
+    private SetupScriptTemplate.Asset ranger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.template = SetupScriptTemplate.load();
+
+        StringBuilder query = new StringBuilder();
+        while (query.length() < this.urlLength)
+            query.append("X-Amz-Security-Token=abcdefghijklmnopqrstuvwxyz0123456789&");
+
+        this.credentials = new SetupScriptTemplate.Asset(
+                String.format("https://bench.s3.amazonaws.com/credentials.zip?%s", query),
+                "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08", 4096);
+        this.ranger = new SetupScriptTemplate.Asset(
+                String.format("https://bench.s3.amazonaws.com/nightswatch-ranger.tar.gz?%s", query),
+                "60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752", 200L * 1024 * 1024);
+    }
+
+    @Benchmark
+    public String render() {
+        return this.template.render(this.credentials, this.ranger);
+    }
+}
@@ -0,0 +1,41 @@
+package com.amazonaws.rp.nightswatch.builder.benchmarks;
+
+import com.amazonaws.rp.nightswatch.builder.utils.StackOutputQuerier;
+import com.amazonaws.services.cloudformation.model.Output;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stack outputs parsing of a DescribeStacks response, the output counts stand for
+ * the demo stack and the large fleet stacks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackOutputParsingBenchmark {
+    @Param({"8", "64", "200"})
+    public int outputCount;
+
+    private List<Output> outputs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.outputs = new ArrayList<>(this.outputCount);
+        for (int i = 0; i < this.outputCount; i++)
+            this.outputs.add(new Output()
+                    .withOutputKey(String.format("output%d", i))
+                    .withOutputValue(String.format("arn:aws:iot:ap-northeast-1:123456789012:thing/nw-bench-%d", i)));
+    }
+
+    @Benchmark
+    public Map<String, String> parseOutputs() {
+        return StackOutputQuerier.parseOutputs(this.outputs);
+    }
+}
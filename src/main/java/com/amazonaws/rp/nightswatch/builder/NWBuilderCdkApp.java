@@ -0,0 +1,77 @@
+package com.amazonaws.rp.nightswatch.builder;
+
+import com.amazonaws.rp.nightswatch.builder.appota.AppOTADemoConfig;
+import com.amazonaws.rp.nightswatch.builder.appota.AppOTADemoDeviceStack;
+import com.amazonaws.rp.nightswatch.builder.appota.AppOTADemoFleetStack;
+import com.amazonaws.rp.nightswatch.builder.appota.AppOTADemoIoTStack;
+import com.amazonaws.rp.nightswatch.builder.appota.FleetConfig;
+import software.amazon.awscdk.core.App;
+import software.amazon.awscdk.core.Environment;
+import software.amazon.awscdk.core.StackProps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthesizes the stacks for `cdk` from the CDK context only, no AWS service is called, so `cdk list`,
+ * `cdk diff` and `cdk synth` work offline against `cdk.context.json`. Kept apart from {@link NWBuilderApp},
+ * so the other commands do not load the CDK and jsii classes.
+ */
+class NWBuilderCdkApp {
+    private NWBuilderCdkApp() {
+    }
+
+    static void synth() throws IOException {
+        StackProps props = StackProps.builder()
+                .env(Environment.builder()
+                        .region(region())
+                        .account(account())
+                        .build())
+                .build();
+
+        App cdkApp = App.Builder.create().build();
+
+        AppOTADemoConfig appOTADemoConfig = AppOTADemoConfig.DEFAULT;
+        new AppOTADemoIoTStack(cdkApp, appOTADemoConfig.getIoTStackName(), props);
+        new AppOTADemoDeviceStack(cdkApp, appOTADemoConfig.getDeviceStackName(), props);
+
+        FleetConfig fleetConfig = fleetConfig(cdkApp);
+        if (fleetConfig != null) {
+            List<List<String>> shards = fleetConfig.loadManifest().shards(fleetConfig.getShardSize());
+            for (int i = 0; i < shards.size(); i++)
+                new AppOTADemoFleetStack(cdkApp, appOTADemoConfig.getFleetStackName(i + 1), props, shards.get(i));
+        }
+
+        // required until https://github.com/awslabs/jsii/issues/456 is resolve
+        cdkApp.synth();
+    }
+
+    // the fleet stacks are synthesized only if the fleet is given by `-c fleet-size=<n>` or
+    // `-c fleet-manifest=<file>`, with the same options of `prepare-asset`
+    private static FleetConfig fleetConfig(final App cdkApp) {
+        List<String> options = new ArrayList<>();
+        for (String name : new String[]{"fleet-size", "fleet-manifest", "thing-group", "fleet-shard-size"}) {
+            Object value = cdkApp.getNode().tryGetContext(name);
+            if (value != null)
+                options.add(String.format("--%s=%s", name, value));
+        }
+
+        if (cdkApp.getNode().tryGetContext("fleet-size") == null &&
+                cdkApp.getNode().tryGetContext("fleet-manifest") == null)
+            return null;
+
+        return FleetConfig.parse(options);
+    }
+
+    // `cdk` provides the account and region it deploys to by the environment variables "CDK_DEFAULT_ACCOUNT"
+    // and "CDK_DEFAULT_REGION", resolved from the AWSSDK config (`~/.aws/config`). The stacks are
+    // environment-agnostic without them, e.g. synthesized offline, no AWS service is called here.
+    private static String region() {
+        return System.getenv("CDK_DEFAULT_REGION");
+    }
+
+    private static String account() {
+        return System.getenv("CDK_DEFAULT_ACCOUNT");
+    }
+}
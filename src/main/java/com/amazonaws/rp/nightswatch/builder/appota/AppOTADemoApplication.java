@@ -1,88 +1,151 @@
 package com.amazonaws.rp.nightswatch.builder.appota;
 
+import com.amazonaws.rp.nightswatch.builder.utils.ArtifactStager;
+import com.amazonaws.rp.nightswatch.builder.utils.ClientRegistry;
 import com.amazonaws.rp.nightswatch.builder.utils.IoTCore;
+import com.amazonaws.rp.nightswatch.builder.utils.Metrics;
+import com.amazonaws.rp.nightswatch.builder.utils.PackageCompression;
+import com.amazonaws.rp.nightswatch.builder.utils.PackageDelta;
 import com.amazonaws.rp.nightswatch.builder.utils.S3;
 import com.amazonaws.rp.nightswatch.builder.utils.StackOutputQuerier;
+import com.amazonaws.rp.nightswatch.builder.utils.StagedArtifact;
 import com.amazonaws.services.iot.AWSIot;
-import com.amazonaws.services.iot.AWSIotClientBuilder;
 import com.amazonaws.services.iot.model.DescribeThingRequest;
 import com.amazonaws.services.iot.model.DescribeThingResult;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
 import java.net.URL;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 public class AppOTADemoApplication {
     private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-app");
+    private final AppOTADemoConfig config;
     private final StackOutputQuerier outputQuerier = new StackOutputQuerier();
     private final S3 s3Util = new S3();
     private final IoTCore jobDeleter = new IoTCore();
+    private final ArtifactStager stager = new ArtifactStager();
 
+    // shared by the variants provisioned concurrently, thing name -> thing ARN
+    private final Map<String, String> thingARNs = new ConcurrentHashMap<>();
+
+    // the variants share the buckets, all objects uploaded for a variant are named after its architecture and
+    // container flag, as the staging directories are, so the concurrent variants never overwrite each other
     private final static String APP_PKG_NAME = "app_xxx_pkg";
     private final static String APP_DEPLOY_JOB_DOC_NAME = "deploy_app_xxx_pkg";
     private final static String APP_DESTROY_JOB_DOC_NAME = "destroy_app_xxx_pkg";
 
+    public final static String JOB_ID_PREFIX = "nw-app-ota-demo-";
+
+    // the package of a version is delivered as a patch to the previous version if the patch is smaller,
+    // off by default, the Ranger must implement the patch operation
+    private final static boolean PATCH_ENABLED =
+            Boolean.parseBoolean(System.getProperty("nightswatch.app.delta", "false"));
+    // the tar balls are diffed in the heap, the larger ones are delivered as the full package
+    private final static long PATCH_MAX_TAR_BYTES =
+            Long.getLong("nightswatch.app.delta.max-tar-bytes", 64L * 1024 * 1024);
+    private final static String PATCH_OPERATION = "patch_app_pkg";
+
     public final static String APP_V1_DEPLOY_JOB_ID = "nw-app-ota-demo-deploy-app-v1";
     public final static String APP_V2_DEPLOY_JOB_ID = "nw-app-ota-demo-deploy-app-v2";
     public final static String APP_V1_DESTROY_JOB_ID = "nw-app-ota-demo-destroy-app-v1";
     public final static String APP_V2_DESTROY_JOB_ID = "nw-app-ota-demo-destroy-app-v2";
 
-    public void provisionV1(final String appOTADemoIoTStackName, final String arch, final String containerFlag)
-            throws IOException {
-        String devFileBucketName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "devfilesbucketname");
-        if (devFileBucketName == null)
-            throw new IllegalArgumentException(String.format(
-                    "the name of s3 bucket to save device assert files not found, " +
-                            "is the NW app OTA demo stack %s invalid?", appOTADemoIoTStackName));
-
-        String jobDocBucketName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "jobdocbucketname");
-        if (jobDocBucketName == null)
-            throw new IllegalArgumentException(String.format(
-                    "the name of s3 bucket to save job documents not found, " +
-                            "is the NW app OTA demo stack %s invalid?", appOTADemoIoTStackName));
+    public AppOTADemoApplication(final AppOTADemoConfig config) {
+        this.config = config;
+    }
 
-        String pkgFilePath = this.prepareAppPkg(arch, containerFlag, "v1");
-        this.s3Util.uploadFile(this.log, devFileBucketName, pkgFilePath);
+    public void provisionV1(final String arch, final String containerFlag) throws IOException {
+        this.provisionV1(arch, containerFlag, null);
+    }
 
-        List<String> result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
-                "v1", "deployment", APP_DEPLOY_JOB_DOC_NAME);
-        String deployJobDocContent = result.get(0);
-        String deployJobDocFilePath = result.get(1);
+    public void provisionV1(final String arch, final String containerFlag,
+                            final JobRolloutConfig rollout) throws IOException {
+        this.provision(this.config.getIoTStackName(), arch, containerFlag, "v1",
+                APP_V1_DEPLOY_JOB_ID, APP_V1_DESTROY_JOB_ID, rollout);
+    }
 
-        String deployJobDocS3ObjectPath = this.s3Util.uploadFile(this.log, jobDocBucketName, deployJobDocFilePath);
+    public void provisionV2(final String arch, final String containerFlag) throws IOException {
+        this.provisionV2(arch, containerFlag, null);
+    }
 
-        String deployJobCmd = this.generateCommand(
-                appOTADemoIoTStackName, deployJobDocS3ObjectPath, APP_V1_DEPLOY_JOB_ID);
+    public void provisionV2(final String arch, final String containerFlag,
+                            final JobRolloutConfig rollout) throws IOException {
+        this.provision(this.config.getIoTStackName(), arch, containerFlag, "v2",
+                APP_V2_DEPLOY_JOB_ID, APP_V2_DESTROY_JOB_ID, rollout);
+    }
 
-        result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
-                "v1", "destroy", APP_DESTROY_JOB_DOC_NAME);
-        String destroyJobDocContent = result.get(0);
-        String destroyJobDocFilePath = result.get(1);
+    /**
+     * Provisions all combinations of the architectures, container flags and versions in one process,
+     * the packages and job documents of the variants are staged and uploaded concurrently.
+     */
+    public void provisionVariants(final AppVariantsConfig variants) throws IOException {
+        String appOTADemoIoTStackName = this.config.getIoTStackName();
+        ExecutorService executor = Executors.newFixedThreadPool(variants.getThreads());
 
-        String destroyJobDocS3ObjectPath = this.s3Util.uploadFile(this.log, jobDocBucketName, destroyJobDocFilePath);
+        try {
+            List<CompletableFuture<VariantSummary>> futures = new ArrayList<>();
+
+            for (String arch : variants.getArchs()) {
+                for (String containerFlag : variants.getContainerFlags()) {
+                    for (String version : variants.getVersions()) {
+                        // the variants share the target thing, each one needs its own jobs
+                        String deployJobID = String.format("%sdeploy-app-%s-%s-%s",
+                                JOB_ID_PREFIX, version, arch, containerFlag);
+                        String destroyJobID = String.format("%sdestroy-app-%s-%s-%s",
+                                JOB_ID_PREFIX, version, arch, containerFlag);
+
+                        futures.add(this.provisionVariant(appOTADemoIoTStackName, arch, containerFlag, version,
+                                deployJobID, destroyJobID, null, executor));
+                    }
+                }
+            }
+
+            List<VariantSummary> summaries = new ArrayList<>();
+            for (CompletableFuture<VariantSummary> future : futures)
+                summaries.add(join(future));
+
+            System.out.println();
+            System.out.println("Outputs:");
+            for (VariantSummary summary : summaries)
+                summary.print();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        String destroyJobCmd = this.generateCommand(
-                appOTADemoIoTStackName, destroyJobDocS3ObjectPath, APP_V1_DESTROY_JOB_ID);
+    private void provision(final String appOTADemoIoTStackName, final String arch, final String containerFlag,
+                           final String version, final String deployJobID, final String destroyJobID,
+                           final JobRolloutConfig rollout) throws IOException {
+        // the package and two job documents are uploaded concurrently
+        ExecutorService executor = Executors.newFixedThreadPool(3);
 
-        System.out.println();
-        System.out.println("Outputs:");
-        System.out.println(String.format("application deployment job document:\n%s", deployJobDocContent));
-        System.out.println(String.format("application deployment job document url:\n\t%s", deployJobDocS3ObjectPath));
-        System.out.println(String.format("application destroy job document:\n%s", destroyJobDocContent));
-        System.out.println(String.format("application destroy job document url:\n\t%s", destroyJobDocS3ObjectPath));
-        System.out.println(String.format("application deployment command line:\n%s", deployJobCmd));
-        System.out.println(String.format("application destroy command line:\n%s", destroyJobCmd));
+        try {
+            VariantSummary summary = join(this.provisionVariant(appOTADemoIoTStackName, arch, containerFlag,
+                    version, deployJobID, destroyJobID, rollout, executor));
+
+            System.out.println();
+            System.out.println("Outputs:");
+            summary.print();
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    public void provisionV2(final String appOTADemoIoTStackName, final String arch, final String containerFlag)
-            throws IOException {
+    private CompletableFuture<VariantSummary> provisionVariant(
+            final String appOTADemoIoTStackName, final String arch, final String containerFlag,
+            final String version, final String deployJobID, final String destroyJobID,
+            final JobRolloutConfig rollout, final ExecutorService executor) {
         String devFileBucketName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "devfilesbucketname");
         if (devFileBucketName == null)
             throw new IllegalArgumentException(String.format(
@@ -95,42 +158,75 @@ public class AppOTADemoApplication {
                     "the name of s3 bucket to save job documents not found, " +
                             "is the NW app OTA demo stack %s invalid?", appOTADemoIoTStackName));
 
-        String pkgFilePath = this.prepareAppPkg(arch, containerFlag, "v2");
-        this.s3Util.uploadFile(this.log, devFileBucketName, pkgFilePath);
-
-        List<String> result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
-                "v2", "deployment", APP_DEPLOY_JOB_DOC_NAME);
-        String deployJobDocContent = result.get(0);
-        String deployJobDocFilePath = result.get(1);
-
-        String deployJobDocS3ObjectPath = this.s3Util.uploadFile(this.log, jobDocBucketName, deployJobDocFilePath);
-
-        String deployJobCmd = this.generateCommand(
-                appOTADemoIoTStackName, deployJobDocS3ObjectPath, APP_V2_DEPLOY_JOB_ID);
-
-        result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
-                "v2", "destroy", APP_DESTROY_JOB_DOC_NAME);
-        String destroyJobDocContent = result.get(0);
-        String destroyJobDocFilePath = result.get(1);
-
-        String destroyJobDocS3ObjectPath = this.s3Util.uploadFile(this.log, jobDocBucketName, destroyJobDocFilePath);
-
-        String destroyJobCmd = this.generateCommand(
-                appOTADemoIoTStackName, destroyJobDocS3ObjectPath, APP_V2_DESTROY_JOB_ID);
-
-        System.out.println();
-        System.out.println("Outputs:");
-        System.out.println(String.format("application deployment job document:\n%s", deployJobDocContent));
-        System.out.println(String.format("application deployment job document url:\n\t%s", deployJobDocS3ObjectPath));
-        System.out.println(String.format("application destroy job document:\n%s", destroyJobDocContent));
-        System.out.println(String.format("application destroy job document url:\n\t%s", destroyJobDocS3ObjectPath));
-        System.out.println(String.format("application deployment command line:\n%s", deployJobCmd));
-        System.out.println(String.format("application destroy command line:\n%s", destroyJobCmd));
+        // null to deliver the bundled gzip package as is
+        PackageCompression compression = PackageCompression.forArch(arch);
+
+        // the digests of the package are computed while it is staged
+        CompletableFuture<StagedArtifact> pkgStage = CompletableFuture.supplyAsync(unchecked(() ->
+                this.prepareAppPkg(arch, containerFlag, version, compression)), executor);
+
+        CompletableFuture<Void> pkgUpload = pkgStage.thenApplyAsync(unchecked(artifact -> {
+            this.s3Util.uploadArtifact(this.log, devFileBucketName, artifact);
+            return null;
+        }), executor);
+
+        // null if there is no previous version, or the patch is not smaller than the package
+        CompletableFuture<AppPatch> patchStage = pkgStage.thenApplyAsync(unchecked(artifact ->
+                PATCH_ENABLED ? this.prepareAppPatch(arch, containerFlag, version, artifact, compression) : null), executor);
+
+        CompletableFuture<Void> patchUpload = patchStage.thenApplyAsync(unchecked(patch -> {
+            if (patch != null)
+                this.s3Util.uploadArtifact(this.log, devFileBucketName, patch.artifact);
+            return null;
+        }), executor);
+
+        // [content, S3 object path], the deployment job document carries the MD5 of the staged package
+        CompletableFuture<List<String>> deployJobDocUpload = patchStage.thenApplyAsync(unchecked(patch -> {
+            // staged already, the patch is generated from it
+            StagedArtifact artifact = pkgStage.join();
+            List<String> result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
+                    version, "deployment", APP_DEPLOY_JOB_DOC_NAME, artifact.getMd5Hex(), patch, compression);
+            return Arrays.asList(result.get(0), this.s3Util.uploadFile(this.log, jobDocBucketName, result.get(1)));
+        }), executor);
+
+        CompletableFuture<List<String>> destroyJobDocUpload = CompletableFuture.supplyAsync(unchecked(() -> {
+            List<String> result = this.prepareAppJobDoc(devFileBucketName, arch, containerFlag,
+                    version, "destroy", APP_DESTROY_JOB_DOC_NAME, null, null, null);
+            return Arrays.asList(result.get(0), this.s3Util.uploadFile(this.log, jobDocBucketName, result.get(1)));
+        }), executor);
+
+        // the job is not created or printed before the package it deploys is uploaded
+        return CompletableFuture.allOf(pkgUpload, patchUpload, deployJobDocUpload, destroyJobDocUpload)
+                .thenApplyAsync(v -> {
+            VariantSummary summary = new VariantSummary(String.format("%s %s %s", arch, containerFlag, version));
+            AppPatch patch = patchStage.join();
+            if (patch != null)
+                summary.patch = String.format("%s to %s, %d bytes instead of %d bytes",
+                        patch.baseVersion, version, patch.artifact.getSize(), pkgStage.join().getSize());
+            summary.deployJobDocContent = deployJobDocUpload.join().get(0);
+            summary.deployJobDocS3ObjectPath = deployJobDocUpload.join().get(1);
+            summary.destroyJobDocContent = destroyJobDocUpload.join().get(0);
+            summary.destroyJobDocS3ObjectPath = destroyJobDocUpload.join().get(1);
+
+            // the deployment job is created directly in the rollout mode,
+            // the operator creates the destroy job on demand
+            if (rollout == null)
+                summary.deployJobCmd = this.generateCommand(
+                        appOTADemoIoTStackName, summary.deployJobDocS3ObjectPath, deployJobID);
+            else
+                summary.deployJobIDs = this.createJobs(
+                        appOTADemoIoTStackName, summary.deployJobDocS3ObjectPath, deployJobID, rollout);
+
+            summary.destroyJobCmd = this.generateCommand(
+                    appOTADemoIoTStackName, summary.destroyJobDocS3ObjectPath, destroyJobID);
+
+            return summary;
+        }, executor);
     }
 
-    private String prepareAppPkg(final String arch, final String containerFlag,
-                                 final String version) throws IOException {
-        String packageDstPath = String.format("%s/target/app-ota-demo/app_%s_%s_%s",
+    private StagedArtifact prepareAppPkg(final String arch, final String containerFlag, final String version,
+                                         final PackageCompression compression) throws IOException {
+        String packageDstPath = String.format("%s/target/app-ota-demo/app_%s_%s_%s/package",
                 System.getProperty("user.dir"), arch, containerFlag, version);
 
         File packageDstPathFile = new File(packageDstPath);
@@ -141,7 +237,7 @@ public class AppOTADemoApplication {
                     "failed to create demo application package %s directory at %s", version, packageDstPath));
 
         String packageDstFilePath = String.format(
-                "%s/%s_%s_%s.tar.gz", packageDstPath, APP_PKG_NAME, containerFlag, version);
+                "%s/%s", packageDstPath, appPkgObjectName(arch, containerFlag, version, compression));
 
         String packageSrcFileName = String.format("nw-app-ota-demo/app_%s_%s_%s/%s.tar.gz",
                 arch, containerFlag, version, APP_PKG_NAME);
@@ -150,22 +246,106 @@ public class AppOTADemoApplication {
             throw new IllegalArgumentException(
                     String.format("application package file %s not found", packageSrcFileName));
 
-        FileOutputStream out = new FileOutputStream(packageDstFilePath);
-        out.write(packageSrc.openStream().readAllBytes());
-        out.close();
+        StagedArtifact artifact;
+        try (Metrics.Span span = Metrics.span("phase.prepare-app.stage-package")) {
+            if (compression == null)
+                artifact = this.stager.stage(packageSrc, new File(packageDstFilePath));
+            else
+                artifact = this.stager.stage(packageSrc, new File(packageDstFilePath), compression);
+            span.bytes(artifact.getSize()).ok();
+        }
 
-        log.info(String.format(
-                "the application package of the IoT device are prepared at %s", packageDstFilePath));
+        log.info(String.format("the application package of the IoT device are prepared at %s, %s, md5 %s",
+                packageDstFilePath, compression == null ? PackageCompression.GZIP : compression,
+                artifact.getMd5Hex()));
 
-        return packageDstFilePath;
+        return artifact;
+    }
+
+    /**
+     * Generates the patch from the package of the previous version, the patch is verified before it is staged.
+     *
+     * @return null if there is no previous version, or the patch is not smaller than the package
+     */
+    private AppPatch prepareAppPatch(final String arch, final String containerFlag, final String version,
+                                     final StagedArtifact artifact, final PackageCompression compression)
+            throws IOException {
+        String baseVersion = previousVersion(version);
+        if (baseVersion == null)
+            return null;
+
+        String baseSrcFileName = String.format("nw-app-ota-demo/app_%s_%s_%s/%s.tar.gz",
+                arch, containerFlag, baseVersion, APP_PKG_NAME);
+        URL baseSrc = getClass().getClassLoader().getResource(baseSrcFileName);
+        if (baseSrc == null)
+            return null;
+
+        byte[] base;
+        try (InputStream in = PackageCompression.GZIP.decompress(baseSrc.openStream())) {
+            base = readTarBall(in);
+        }
+
+        // the package might be recompressed by other codec
+        PackageCompression targetCompression = compression == null ? PackageCompression.GZIP : compression;
+        byte[] target = null;
+        if (base != null) {
+            try (InputStream in = targetCompression.decompress(new FileInputStream(artifact.getFile()))) {
+                target = readTarBall(in);
+            }
+        }
+
+        if (target == null) {
+            log.info(String.format("the application package tar ball of %s or %s is larger than %d bytes, " +
+                    "the package is delivered", baseVersion, version, PATCH_MAX_TAR_BYTES));
+            return null;
+        }
+
+        byte[] patch;
+        try (Metrics.Span span = Metrics.span("phase.prepare-app.diff-package")) {
+            patch = PackageDelta.diff(base, target);
+            span.bytes(patch.length).ok();
+        }
+
+        if (patch.length >= artifact.getSize()) {
+            log.info(String.format("the application package patch from %s to %s is %d bytes, " +
+                    "not smaller than the package, the package is delivered", baseVersion, version, patch.length));
+            return null;
+        }
+
+        if (!Arrays.equals(target, PackageDelta.apply(base, patch)))
+            throw new IllegalStateException(String.format(
+                    "the application package patch from %s to %s is broken", baseVersion, version));
+
+        String patchDstPath = String.format("%s/target/app-ota-demo/app_%s_%s_%s/patch",
+                System.getProperty("user.dir"), arch, containerFlag, version);
+
+        File patchDstPathFile = new File(patchDstPath);
+        FileUtils.deleteDirectory(patchDstPathFile);
+        boolean ok = patchDstPathFile.mkdirs();
+        if (!ok)
+            throw new IOException(String.format(
+                    "failed to create demo application patch %s directory at %s", version, patchDstPath));
+
+        String patchDstFilePath = String.format("%s/%s_%s_%s_%s_%s.patch.gz",
+                patchDstPath, APP_PKG_NAME, arch, containerFlag, baseVersion, version);
+
+        StagedArtifact patchArtifact = this.stager.stage(patch, new File(patchDstFilePath));
+
+        log.info(String.format("the application package patch from %s to %s are prepared at %s, %d bytes",
+                baseVersion, version, patchDstFilePath, patch.length));
+
+        // the base is identified by the tar ball, the device might have it delivered by any codec
+        return new AppPatch(baseVersion, DigestUtils.md5Hex(base), DigestUtils.md5Hex(target), patchArtifact);
     }
 
     private List<String> prepareAppJobDoc(final String jobDocBucketName, final String arch,
                                           final String containerFlag, final String version,
-                                          final String deploymentFlag, final String jobDocName) throws IOException {
+                                          final String deploymentFlag, final String jobDocName,
+                                          final String pkgMd5, final AppPatch patch,
+                                          final PackageCompression compression) throws IOException {
         try {
-            String jobDocDstPath = String.format("%s/target/app-ota-demo/app_%s_%s_%s",
-                    System.getProperty("user.dir"), arch, containerFlag, version);
+            String jobDocDstPath = String.format("%s/target/app-ota-demo/app_%s_%s_%s/%s",
+                    System.getProperty("user.dir"), arch, containerFlag, version, deploymentFlag);
 
             File jobDocDstPathFile = new File(jobDocDstPath);
             FileUtils.deleteDirectory(jobDocDstPathFile);
@@ -174,23 +354,47 @@ public class AppOTADemoApplication {
                 throw new IOException(String.format("failed to create demo application %s job document directory at %s",
                         deploymentFlag, jobDocDstPath));
 
-            String jobDocDstFilePath = String.format("%s/%s_%s.json", jobDocDstPath, jobDocName, version);
+            String jobDocDstFilePath = String.format("%s/%s_%s_%s_%s.json",
+                    jobDocDstPath, jobDocName, arch, containerFlag, version);
 
             String jobDocSrcFileName = String.format("nw-app-ota-demo/app_%s_%s_%s/%s.json",
                     arch, containerFlag, version, jobDocName);
-            URL jobDocSrcFilePath = getClass().getClassLoader().getResource(jobDocSrcFileName);
-            if (jobDocSrcFilePath == null)
-                throw new IllegalArgumentException(
-                        String.format("application %s job document %s not found", deploymentFlag, jobDocSrcFileName));
-
-            String doc = new String(jobDocSrcFilePath.openStream().readAllBytes());
-
-            doc = doc.replace("<BUCKET_NAME>", jobDocBucketName);
-            doc = String.format("\t%s", doc.replace("\n", "\n\t"));
-
-            PrintWriter out = new PrintWriter(jobDocDstFilePath);
-            out.print(doc);
-            out.close();
+            JobDocTemplate template = JobDocTemplate.load(jobDocSrcFileName);
+
+            // the destroy job document has no package
+            String codec = (compression == null ? PackageCompression.GZIP : compression).getCodec().getName();
+
+            JobDocTemplate.Params params;
+            if (pkgMd5 == null) {
+                params = new JobDocTemplate.Params(jobDocBucketName, null,
+                        appPkgObjectName(arch, containerFlag, version, compression), null,
+                        "containerized".equals(containerFlag));
+            } else if (patch == null) {
+                params = new JobDocTemplate.Params(jobDocBucketName, null,
+                        appPkgObjectName(arch, containerFlag, version, compression), pkgMd5,
+                        "containerized".equals(containerFlag), null, Collections.singletonMap("pkg_codec", codec));
+            } else {
+                // the device without the base package installed falls back to the full package
+                Map<String, String> fields = new LinkedHashMap<>();
+                fields.put("base_tar_md5", patch.baseTarMd5);
+                fields.put("target_tar_md5", patch.targetTarMd5);
+                fields.put("full_pkg_url", JobDocTemplate.pkgUrl(jobDocBucketName,
+                        appPkgObjectName(arch, containerFlag, version, compression)));
+                fields.put("full_pkg_md5", pkgMd5);
+                fields.put("full_pkg_codec", codec);
+
+                params = new JobDocTemplate.Params(jobDocBucketName, null,
+                        patch.artifact.getFile().getName(), patch.artifact.getMd5Hex(),
+                        "containerized".equals(containerFlag), PATCH_OPERATION, fields);
+            }
+
+            // the compact form is uploaded, the indented one is for the console only
+            String doc;
+            try (Metrics.Span span = Metrics.span("phase.prepare-app.render-job-doc")) {
+                Files.write(Paths.get(jobDocDstFilePath), template.render(params));
+                doc = template.renderForConsole(params);
+                span.ok();
+            }
 
             log.info(String.format("the application %s job document of the IoT device are prepared at %s",
                     deploymentFlag, jobDocDstFilePath));
@@ -203,8 +407,66 @@ public class AppOTADemoApplication {
         }
     }
 
+    private List<String> createJobs(final String appOTADemoIoTStackName, final String jobDocS3ObjectPath,
+                                    final String jobID, final JobRolloutConfig rollout) {
+        String s3PreSignIAMRoleARN = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "s3presigniamrolearn");
+        if (s3PreSignIAMRoleARN == null)
+            throw new IllegalArgumentException(String.format(
+                    "the S3 pre-sign IAM role ARN not found," +
+                            " is the NW app OTA demo stack %s invalid?", appOTADemoIoTStackName));
+
+        List<String> targets = this.resolveJobTargets(appOTADemoIoTStackName, rollout);
+
+        // delete the existing job and its batches, the targets might be batched differently this time
+        Pattern batchJobID = Pattern.compile(String.format("%s(-\\d+)?", Pattern.quote(jobID)));
+        List<String> existingJobIDs = new ArrayList<>();
+        for (String id : this.jobDeleter.listJobIDs(this.log, jobID)) {
+            if (batchJobID.matcher(id).matches())
+                existingJobIDs.add(id);
+        }
+        try (Metrics.Span span = Metrics.span("phase.prepare-app.delete-jobs")) {
+            this.jobDeleter.deleteJob(this.log, existingJobIDs.toArray(new String[0]));
+            span.ok();
+        }
+
+        try (Metrics.Span span = Metrics.span("phase.prepare-app.create-jobs")) {
+            List<String> jobIDs = this.jobDeleter.createJobs(this.log, jobID, jobDocS3ObjectPath,
+                    s3PreSignIAMRoleARN, targets, rollout.getMaxPerMinute(), rollout.getInProgressTimeoutMinutes(),
+                    rollout.getUrlExpiresSeconds());
+            span.ok();
+            return jobIDs;
+        }
+    }
+
+    private List<String> resolveJobTargets(final String appOTADemoIoTStackName, final JobRolloutConfig rollout) {
+        String thingName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "thingname");
+        if (thingName == null)
+            throw new IllegalArgumentException(String.format(
+                    "the name of IoT device not found, is the NW app OTA demo stack %s invalid?",
+                    appOTADemoIoTStackName));
+
+        String thingARN = this.describeThingARN(thingName);
+
+        if (rollout.getThingNames().isEmpty() && rollout.getThingGroupNames().isEmpty())
+            return Collections.singletonList(thingARN);
+
+        // the ARNs of other things and thing groups share the partition, region and account of the demo thing,
+        // so no DescribeThing call is needed for each target
+        String arnPrefix = thingARN.substring(0, thingARN.lastIndexOf(":thing/"));
+
+        List<String> targets = new ArrayList<>();
+        for (String name : rollout.getThingNames())
+            targets.add(String.format("%s:thing/%s", arnPrefix, name));
+        for (String name : rollout.getThingGroupNames())
+            targets.add(String.format("%s:thinggroup/%s", arnPrefix, name));
+
+        return targets;
+    }
+
     private String generateCommand(final String appOTADemoIoTStackName, final String jobDocS3ObjectPath,
                                    final String jobID) {
+        // the job deletion is in progress while the command is generated
+        CompletableFuture<Void> jobDeletion = this.jobDeleter.deleteJobs(this.log, jobID);
 
         String thingName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "thingname");
         if (thingName == null)
@@ -212,12 +474,7 @@ public class AppOTADemoApplication {
                     "the name of IoT device not found, is the NW app OTA demo stack %s invalid?",
                     appOTADemoIoTStackName));
 
-        DescribeThingRequest req = new DescribeThingRequest();
-        req.setThingName(thingName);
-
-        AWSIot client = AWSIotClientBuilder.defaultClient();
-        DescribeThingResult result = client.describeThing(req);
-        String thingARN = result.getThingArn();
+        String thingARN = this.describeThingARN(thingName);
 
         String s3PreSignIAMRoleARN = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "s3presigniamrolearn");
         if (s3PreSignIAMRoleARN == null)
@@ -225,8 +482,6 @@ public class AppOTADemoApplication {
                     "the S3 pre-sign IAM role ARN not found," +
                             " is the NW app OTA demo stack %s invalid?", appOTADemoIoTStackName));
 
-        this.jobDeleter.deleteJob(this.log, jobID);
-
         String cmd =
                 "aws iot create-job \\\n" +
                         "\t--job-id <JOB_ID> \\\n" +
@@ -241,6 +496,133 @@ public class AppOTADemoApplication {
         cmd = cmd.replace("<PRE_SIGN_ROLE_ARN>", s3PreSignIAMRoleARN);
         cmd = String.format("\t%s", cmd.replace("\n", "\n\t"));
 
+        // the job ID is only available to the command once the existing job is deleted
+        try (Metrics.Span span = Metrics.span("phase.prepare-app.delete-jobs")) {
+            jobDeletion.join();
+            span.ok();
+        }
+
         return cmd;
     }
+
+    /**
+     * @return the version before, e.g. v1 for v2, or null for the first version
+     */
+    private static String previousVersion(final String version) {
+        if (!version.matches("v\\d+"))
+            return null;
+
+        int number = Integer.parseInt(version.substring(1));
+        return number > 1 ? String.format("v%d", number - 1) : null;
+    }
+
+    /**
+     * @return the tar ball, or null if it is larger than the limit of the patch
+     */
+    private static byte[] readTarBall(final InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // one byte more to tell the tar ball exceeds the limit
+        IOUtils.copyLarge(in, out, 0, PATCH_MAX_TAR_BYTES + 1);
+        return out.size() > PATCH_MAX_TAR_BYTES ? null : out.toByteArray();
+    }
+
+    private static String appPkgObjectName(final String arch, final String containerFlag, final String version,
+                                           final PackageCompression compression) {
+        return String.format("%s_%s_%s_%s.%s", APP_PKG_NAME, arch, containerFlag, version,
+                (compression == null ? PackageCompression.GZIP : compression).getExtension());
+    }
+
+    private String describeThingARN(final String thingName) {
+        return this.thingARNs.computeIfAbsent(thingName, name -> {
+            DescribeThingRequest req = new DescribeThingRequest();
+            req.setThingName(name);
+
+            AWSIot client = ClientRegistry.iot();
+            DescribeThingResult result = client.describeThing(req);
+            return result.getThingArn();
+        });
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static <T, R> Function<T, R> unchecked(final CheckedFunction<T, R> task) {
+        return t -> unchecked(() -> task.apply(t)).get();
+    }
+
+    private interface CheckedFunction<T, R> {
+        R apply(T t) throws Exception;
+    }
+
+    private static <T> Supplier<T> unchecked(final Callable<T> task) {
+        return () -> {
+            try {
+                return task.call();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static class AppPatch {
+        private final String baseVersion;
+        private final String baseTarMd5;
+        private final String targetTarMd5;
+        private final StagedArtifact artifact;
+
+        private AppPatch(final String baseVersion, final String baseTarMd5, final String targetTarMd5,
+                         final StagedArtifact artifact) {
+            this.baseVersion = baseVersion;
+            this.baseTarMd5 = baseTarMd5;
+            this.targetTarMd5 = targetTarMd5;
+            this.artifact = artifact;
+        }
+    }
+
+    private static class VariantSummary {
+        private final String name;
+        private String deployJobDocContent;
+        private String deployJobDocS3ObjectPath;
+        private String destroyJobDocContent;
+        private String destroyJobDocS3ObjectPath;
+        private String deployJobCmd;
+        private List<String> deployJobIDs;
+        private String destroyJobCmd;
+        private String patch;
+
+        private VariantSummary(final String name) {
+            this.name = name;
+        }
+
+        private void print() {
+            System.out.println(String.format("application variant:\n\t%s", this.name));
+            if (this.patch != null)
+                System.out.println(String.format("application package patch:\n\t%s", this.patch));
+            System.out.println(String.format("application deployment job document:\n%s", this.deployJobDocContent));
+            System.out.println(String.format("application deployment job document url:\n\t%s",
+                    this.deployJobDocS3ObjectPath));
+            System.out.println(String.format("application destroy job document:\n%s", this.destroyJobDocContent));
+            System.out.println(String.format("application destroy job document url:\n\t%s",
+                    this.destroyJobDocS3ObjectPath));
+            if (this.deployJobIDs == null)
+                System.out.println(String.format("application deployment command line:\n%s", this.deployJobCmd));
+            else
+                System.out.println(String.format("application deployment jobs:\n\t%s",
+                        String.join("\n\t", this.deployJobIDs)));
+            System.out.println(String.format("application destroy command line:\n%s", this.destroyJobCmd));
+        }
+    }
 }
@@ -0,0 +1,176 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.simulator.FleetSimulator;
+import com.amazonaws.rp.nightswatch.builder.simulator.FleetSimulatorConfig;
+import com.amazonaws.rp.nightswatch.builder.utils.Metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Dispatches the `app-ota-demo` commands, shared by the command line, the server mode and the release plan.
+ *
+ * The clients and caches of the utilities are process wide, so the commands dispatched by one instance
+ * in a resident process reuse the warm ones.
+ *
+ * The commands dispatched by one instance concurrently are kept apart: the asset commands change what all
+ * the others depend on, they run exclusively; an application command locks the job IDs it recreates and the
+ * variants it stages, so the ones sharing either run one at a time, e.g. `prepare-app-v1` and
+ * `prepare-native-app-v1` share the job IDs of v1, and the others run concurrently.
+ */
+public class AppOTADemoCommands {
+    public final static Set<String> COMMANDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "service-endpoint", "prepare-asset", "cleanup-asset", "prepare-app-v1", "prepare-app-v2",
+            "prepare-native-app-v1", "prepare-native-app-v2", "prepare-apps", "codec-benchmark", "simulate",
+            "job-report", "run-plan")));
+
+    private final AppOTADemoConfig config;
+
+    private final ReadWriteLock assetLock = new ReentrantReadWriteLock();
+    // the job IDs and the application variants, created on demand and kept, there are a few of them
+    private final ConcurrentMap<String, Lock> appLocks = new ConcurrentHashMap<>();
+
+    public AppOTADemoCommands(final AppOTADemoConfig config) {
+        this.config = config;
+    }
+
+    public AppOTADemoConfig getConfig() {
+        return this.config;
+    }
+
+    /**
+     * @return false if the command is unknown
+     */
+    public boolean run(final String command, final List<String> options) throws Exception {
+        // the steps of a plan take the locks on their own
+        if ("run-plan".equals(command))
+            return this.dispatch(command, options);
+
+        boolean exclusive = isAssetCommand(command);
+
+        // taken in order, two commands sharing more than one never wait for each other
+        List<Lock> appLocks = new ArrayList<>();
+        for (String key : appLockKeys(command, options))
+            appLocks.add(this.appLocks.computeIfAbsent(key, k -> new ReentrantLock()));
+
+        Lock lock = exclusive ? this.assetLock.writeLock() : this.assetLock.readLock();
+        lock.lock();
+        int locked = 0;
+        try {
+            for (Lock appLock : appLocks) {
+                appLock.lock();
+                locked++;
+            }
+            try (Metrics.Span span = Metrics.span(String.format("command.%s", command))) {
+                boolean known = this.dispatch(command, options);
+                span.ok();
+                return known;
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--)
+                appLocks.get(i).unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the job IDs an application command recreates and the variants it stages, sorted
+     */
+    static SortedSet<String> appLockKeys(final String command, final List<String> options) {
+        SortedSet<String> keys = new TreeSet<>();
+
+        switch (command) {
+            case "prepare-app-v1":
+            case "prepare-app-v2":
+            case "prepare-native-app-v1":
+            case "prepare-native-app-v2": {
+                String version = command.substring(command.length() - 2);
+                keys.add(String.format("job:%s", version));
+                keys.add(String.format("variant:x64/%s/%s",
+                        command.startsWith("prepare-native-") ? "native" : "containerized", version));
+                break;
+            }
+            case "prepare-apps":
+                // each variant has its own job IDs
+                AppVariantsConfig variants = AppVariantsConfig.parse(options);
+                for (String arch : variants.getArchs()) {
+                    for (String containerFlag : variants.getContainerFlags()) {
+                        for (String version : variants.getVersions())
+                            keys.add(String.format("variant:%s/%s/%s", arch, containerFlag, version));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+
+        return keys;
+    }
+
+    static boolean isAssetCommand(final String command) {
+        return "prepare-asset".equals(command) || "cleanup-asset".equals(command);
+    }
+
+    static boolean isAppCommand(final String command) {
+        return command.startsWith("prepare-") && !isAssetCommand(command);
+    }
+
+    private boolean dispatch(final String command, final List<String> options) throws Exception {
+        switch (command) {
+            case "service-endpoint":
+                if (!options.isEmpty())
+                    return false;
+                new AppOTADemoService(this.config).queryEndpoint();
+                return true;
+            case "prepare-asset":
+                if (options.isEmpty())
+                    new AppOTADemoAssert(this.config).provision();
+                else
+                    new AppOTADemoAssert(this.config).provisionFleet(FleetConfig.parse(options));
+                return true;
+            case "cleanup-asset":
+                if (!options.isEmpty())
+                    return false;
+                new AppOTADemoAssert(this.config).deProvision();
+                return true;
+            case "prepare-app-v1":
+                new AppOTADemoApplication(this.config).provisionV1("x64", "containerized",
+                        JobRolloutConfig.parse(options));
+                return true;
+            case "prepare-app-v2":
+                new AppOTADemoApplication(this.config).provisionV2("x64", "containerized",
+                        JobRolloutConfig.parse(options));
+                return true;
+            case "prepare-native-app-v1":
+                new AppOTADemoApplication(this.config).provisionV1("x64", "native",
+                        JobRolloutConfig.parse(options));
+                return true;
+            case "prepare-native-app-v2":
+                new AppOTADemoApplication(this.config).provisionV2("x64", "native",
+                        JobRolloutConfig.parse(options));
+                return true;
+            case "prepare-apps":
+                new AppOTADemoApplication(this.config).provisionVariants(AppVariantsConfig.parse(options));
+                return true;
+            case "codec-benchmark":
+                new AppPackageCodecBenchmark().run(CodecBenchmarkConfig.parse(options));
+                return true;
+            case "simulate":
+                new FleetSimulator().run(FleetSimulatorConfig.parse(options));
+                return true;
+            case "job-report":
+                new JobReport().run(JobReportConfig.parse(options));
+                return true;
+            case "run-plan":
+                new ReleasePlanRunner(this).run(ReleasePlanConfig.parse(options));
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+/**
+ * The stacks the application OTA demo operates on. Immutable, so an operation in progress is not affected
+ * by the others sharing the process, e.g. in the server mode.
+ */
+public class AppOTADemoConfig {
+    public final static String DEFAULT_IOT_STACK_NAME = "nightswatch-app-ota-demo-iot";
+    public final static String DEFAULT_DEVICE_STACK_NAME = "nightswatch-app-ota-demo-dev";
+
+    public final static AppOTADemoConfig DEFAULT =
+            new AppOTADemoConfig(DEFAULT_IOT_STACK_NAME, DEFAULT_DEVICE_STACK_NAME);
+
+    private final String iotStackName;
+    private final String deviceStackName;
+
+    public AppOTADemoConfig(final String iotStackName, final String deviceStackName) {
+        if (iotStackName == null || iotStackName.isEmpty())
+            throw new IllegalArgumentException("the name of the NW app OTA demo IoT stack is not provided");
+        if (deviceStackName == null || deviceStackName.isEmpty())
+            throw new IllegalArgumentException("the name of the NW app OTA demo device stack is not provided");
+
+        this.iotStackName = iotStackName;
+        this.deviceStackName = deviceStackName;
+    }
+
+    public String getIoTStackName() {
+        return this.iotStackName;
+    }
+
+    public String getDeviceStackName() {
+        return this.deviceStackName;
+    }
+
+    /**
+     * @return the name of the stack of the fleet things shard, counted from 1
+     */
+    public String getFleetStackName(final int shard) {
+        return String.format("%s-fleet-%d", this.iotStackName, shard);
+    }
+}
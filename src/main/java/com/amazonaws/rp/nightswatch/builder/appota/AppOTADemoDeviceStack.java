@@ -1,7 +1,5 @@
 package com.amazonaws.rp.nightswatch.builder.appota;
 
-import com.amazonaws.rp.nightswatch.builder.utils.S3;
-import com.amazonaws.rp.nightswatch.builder.utils.StackOutputQuerier;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,21 +11,20 @@ import java.util.*;
 
 public class AppOTADemoDeviceStack extends Stack {
     private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-device-stack");
-    private final StackOutputQuerier outputQuerier = new StackOutputQuerier();
-    private final S3 s3util = new S3();
 
     private final String ec2ImageID;
     private final String ec2KeyName;
     private final String ec2SetupScriptURL;
 
     public final static String SETUP_SCRIPT_FILE_NAME = "setup.py";
+    // saved to the CDK context file by `prepare-asset`, the synthesis calls no AWS service
+    public final static String SETUP_SCRIPT_URL_CONTEXT_KEY = "setup-script-url";
 
-    public AppOTADemoDeviceStack(final Construct parent, final String id, final String appOTADemoIoTStackName) {
-        this(parent, id, null, appOTADemoIoTStackName);
+    public AppOTADemoDeviceStack(final Construct parent, final String id) {
+        this(parent, id, null);
     }
 
-    public AppOTADemoDeviceStack(final Construct parent, final String id, final StackProps props,
-                                 final String appOTADemoIoTStackName) {
+    public AppOTADemoDeviceStack(final Construct parent, final String id, final StackProps props) {
         super(parent, id, props);
 
         Object ec2DeviceImageIDObj = this.getNode().tryGetContext("ec2-image-id");
@@ -43,14 +40,12 @@ public class AppOTADemoDeviceStack extends Stack {
         else
             this.ec2KeyName = ec2KeyNameObj.toString();
 
-        String devFileBucketName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "devfilesbucketname");
-        if (devFileBucketName == null) {
-            // instead of to raise exception, since CDK needs (e.g. list and bootstrap)
+        // the instance is checked when it is created, so `cdk list` and `cdk bootstrap` still work without it
+        Object ec2SetupScriptURLObj = this.getNode().tryGetContext(SETUP_SCRIPT_URL_CONTEXT_KEY);
+        if (ec2SetupScriptURLObj == null)
             this.ec2SetupScriptURL = null;
-        } else {
-            this.ec2SetupScriptURL =
-                    this.s3util.getObjectPreSignedUrl(this.log, devFileBucketName, SETUP_SCRIPT_FILE_NAME, 7);
-        }
+        else
+            this.ec2SetupScriptURL = ec2SetupScriptURLObj.toString();
 
         // EC2 instance (act device) stuff
         CfnInternetGateway igw = this.createIGW();
@@ -132,9 +127,28 @@ public class AppOTADemoDeviceStack extends Stack {
     }
 
     private void createEC2Device(CfnSubnet subnet, CfnSecurityGroup sg) {
-        IMachineImage image;
+        // the errors fail `cdk synth` and `cdk deploy` of the stack with the message, the instance is not created
+        if (this.ec2SetupScriptURL == null) {
+            String error = String.format("the setup script URL %s not found in the CDK context, " +
+                    "run `app-ota-demo prepare-asset` first", SETUP_SCRIPT_URL_CONTEXT_KEY);
+            log.warn(error);
+            this.getNode().addError(error);
+            return;
+        }
 
-        if (this.ec2ImageID == null) {
+        String imageID;
+
+        if (this.ec2ImageID != null) {
+            // the stack is deployed to one region, the image is used as is
+            imageID = this.ec2ImageID;
+        } else if (Token.isUnresolved(this.getRegion()) || Token.isUnresolved(this.getAccount())) {
+            // environment-agnostic, e.g. synthesized offline without CDK_DEFAULT_ACCOUNT and CDK_DEFAULT_REGION
+            String error = "the Ubuntu image is looked up in the account and region the stack is deployed to, " +
+                    "which are unknown, provide the image by `-c ec2-image-id=<ec2-image-id>`";
+            log.warn(error);
+            this.getNode().addError(error);
+            return;
+        } else {
             Map<String, List<String>> filters = new HashMap<>();
             filters.put("architecture", Collections.singletonList("x86_64"));
             filters.put("image-type", Collections.singletonList("machine"));
@@ -142,7 +156,7 @@ public class AppOTADemoDeviceStack extends Stack {
             filters.put("state", Collections.singletonList("available"));
             filters.put("virtualization-type", Collections.singletonList("hvm"));
 
-            image = LookupMachineImage.Builder.create()
+            IMachineImage image = LookupMachineImage.Builder.create()
                     .name("*ubuntu-bionic-18.04-amd64-server-*")
                     .windows(false)
                     // in order to use the image in the AWS Marketplace product,
@@ -151,11 +165,7 @@ public class AppOTADemoDeviceStack extends Stack {
                     .owners(Collections.singletonList("amazon"))
                     .filters(filters)
                     .build();
-        } else {
-            Map<String, String> filters = new HashMap<>();
-            filters.put(this.getRegion(), this.ec2ImageID);
-
-            image = GenericLinuxImage.Builder.create(filters).build();
+            imageID = image.getImage(this).getImageId();
         }
 
         String cmd = String.format("#!/bin/bash\n" +
@@ -167,7 +177,7 @@ public class AppOTADemoDeviceStack extends Stack {
         cmd = new String(Base64.encodeBase64(cmd.getBytes()));
 
         CfnInstance instance = new CfnInstance(this, "nw-app-ota-demo-ec2-device", CfnInstanceProps.builder()
-                .imageId(image.getImage(this).getImageId())
+                .imageId(imageID)
                 .instanceType("t2.small")
                 .subnetId(subnet.getRef())
                 .securityGroupIds(Collections.singletonList(sg.getRef()))
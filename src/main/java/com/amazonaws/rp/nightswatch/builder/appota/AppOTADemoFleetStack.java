@@ -0,0 +1,29 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import software.amazon.awscdk.core.*;
+import software.amazon.awscdk.services.iot.CfnThing;
+import software.amazon.awscdk.services.iot.CfnThingProps;
+
+import java.util.List;
+
+/**
+ * One shard of the fleet things. The shards are independent of each other and of the IoT stack,
+ * so they are deployed and destroyed in parallel, and a shard stays under the resource limit of a stack.
+ *
+ * The certificates of the devices are not in the stack, see {@link FleetProvisioner}.
+ */
+public class AppOTADemoFleetStack extends Stack {
+    public AppOTADemoFleetStack(final Construct parent, final String id, final StackProps props,
+                                final List<String> thingNames) {
+        super(parent, id, props);
+
+        if (thingNames.size() > FleetManifest.MAX_SHARD_SIZE)
+            throw new IllegalArgumentException(String.format(
+                    "%d things exceed the limit %d of a fleet stack", thingNames.size(), FleetManifest.MAX_SHARD_SIZE));
+
+        for (String thingName : thingNames)
+            new CfnThing(this, thingName, CfnThingProps.builder()
+                    .thingName(thingName)
+                    .build());
+    }
+}
@@ -0,0 +1,247 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the `app-ota-demo` commands over HTTP on the loopback interface, so the automation calling the
+ * commands many times pays the JVM start, the SDK initialization and the credential resolution once.
+ *
+ * POST /app-ota-demo/<command>   the body lists the command options, one per line, e.g. `--create-job`
+ * GET  /health
+ *
+ * The response carries the command outputs, with status 200 on success, 400 for an unknown command or
+ * invalid options and 500 on failure.
+ *
+ * The commands change the cloud resources, so the loopback is not trusted as is: a command is only run with
+ * the random token of the run in the `Authorization: Bearer <token>` header, the token is written to a file
+ * only the owner reads. The requests from a browser, with an Origin header or a Host other than the loopback,
+ * are rejected against the cross-site requests and the DNS rebinding, status 403.
+ *
+ * The concurrent requests are kept apart by {@link AppOTADemoCommands}.
+ */
+public class AppOTADemoServer {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-server");
+
+    private final static Set<String> LOOPBACK_HOSTS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("localhost", "127.0.0.1", "[::1]")));
+
+    private final AppOTADemoServerConfig config;
+    private final AppOTADemoCommands commands;
+    private final byte[] token;
+
+    public AppOTADemoServer(final AppOTADemoServerConfig config) {
+        this.config = config;
+        this.commands = new AppOTADemoCommands(config.getDemoConfig());
+
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        this.token = Base64.getUrlEncoder().withoutPadding().encode(random);
+    }
+
+    /**
+     * Blocks until the process is terminated.
+     */
+    public void serve() throws IOException, InterruptedException {
+        CommandOutput.install();
+
+        File tokenFile = this.config.getTokenFile();
+        this.writeToken(tokenFile);
+
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), this.config.getPort()), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(this.config.getThreads());
+        server.setExecutor(executor);
+
+        server.createContext("/health", exchange -> {
+            if (this.isLocal(exchange))
+                this.respond(exchange, 200, "ok\n");
+        });
+        server.createContext("/app-ota-demo/", this::handle);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            executor.shutdown();
+            tokenFile.delete();
+            stopped.countDown();
+        }, "nightswatch-app-ota-demo-server-stop"));
+
+        server.start();
+        this.log.info(String.format("serving app-ota-demo commands on %s with %d threads, the token is in %s",
+                server.getAddress(), this.config.getThreads(), tokenFile));
+
+        stopped.await();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        if (!this.isLocal(exchange))
+            return;
+
+        if (!this.isAuthorized(exchange)) {
+            this.log.warn(String.format("unauthorized request to %s rejected", exchange.getRequestURI().getPath()));
+            this.respond(exchange, 401, "the token of the server expected\n");
+            return;
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            this.respond(exchange, 405, "POST expected\n");
+            return;
+        }
+
+        String command = exchange.getRequestURI().getPath().substring("/app-ota-demo/".length());
+        List<String> options = new ArrayList<>();
+        for (String line : new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.trim().isEmpty())
+                options.add(line.trim());
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status;
+
+        CommandOutput.redirect(output);
+        try {
+            status = this.commands.run(command, options) ? 200 : 400;
+            if (status == 400)
+                System.out.println(String.format("invalid demo command %s", command));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            status = 400;
+        } catch (Exception e) {
+            this.log.error(String.format("command %s failed: %s", command, e.getMessage()));
+            System.out.println(e.getMessage());
+            status = 500;
+        } finally {
+            CommandOutput.restore();
+        }
+
+        this.respond(exchange, status, output.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Responds 403 to the request from a browser or through a name resolved to the loopback.
+     */
+    private boolean isLocal(final HttpExchange exchange) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host != null) {
+            // the port is optional
+            int idx = host.lastIndexOf(':');
+            if (idx > host.lastIndexOf(']'))
+                host = host.substring(0, idx);
+        }
+
+        if (exchange.getRequestHeaders().containsKey("Origin") ||
+                host == null || !LOOPBACK_HOSTS.contains(host.toLowerCase(Locale.ROOT))) {
+            this.log.warn(String.format("request to %s with host %s and origin %s rejected",
+                    exchange.getRequestURI().getPath(), exchange.getRequestHeaders().getFirst("Host"),
+                    exchange.getRequestHeaders().getFirst("Origin")));
+            this.respond(exchange, 403, "only the local clients are served\n");
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isAuthorized(final HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer "))
+            return false;
+
+        // constant time, the token is not guessed byte by byte
+        return MessageDigest.isEqual(this.token,
+                authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the token of this run, readable by the owner only, the file of the previous run is replaced.
+     */
+    private void writeToken(final File tokenFile) throws IOException {
+        Path path = tokenFile.toPath().toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        Files.deleteIfExists(path);
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+            tokenFile.setReadable(false, false);
+            tokenFile.setReadable(true, true);
+            tokenFile.setWritable(false, false);
+            tokenFile.setWritable(true, true);
+        }
+
+        Files.write(path, this.token);
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, content.length == 0 ? -1 : content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Routes the standard output of a request thread to its response, the commands print their outputs
+     * to the standard output. The outputs printed by the worker threads of a command go to the console.
+     */
+    private static class CommandOutput extends OutputStream {
+        private final static ThreadLocal<OutputStream> TARGET = new ThreadLocal<>();
+
+        private static PrintStream console;
+
+        private static synchronized void install() {
+            if (console != null)
+                return;
+
+            console = System.out;
+            System.setOut(new PrintStream(new CommandOutput(), true, StandardCharsets.UTF_8));
+        }
+
+        private static void redirect(final OutputStream out) {
+            TARGET.set(out);
+        }
+
+        private static void restore() {
+            TARGET.remove();
+        }
+
+        private static OutputStream target() {
+            OutputStream target = TARGET.get();
+            return target != null ? target : console;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The listening port, the request thread count and the demo stacks of the server mode.
+ *
+ * Parsed from the command options:
+ * --port=<n>                  the port on the loopback interface, default 8421
+ * --threads=<n>               the requests handled concurrently, default 4
+ * --iot-stack-name=<name>     default nightswatch-app-ota-demo-iot
+ * --device-stack-name=<name>  default nightswatch-app-ota-demo-dev
+ * --token-file=<path>         where the token of the run is written to, default target/app-ota-demo-server.token
+ */
+public class AppOTADemoServerConfig {
+    private final int port;
+    private final int threads;
+    private final AppOTADemoConfig demoConfig;
+    private final File tokenFile;
+
+    public AppOTADemoServerConfig(final int port, final int threads, final AppOTADemoConfig demoConfig,
+                                  final File tokenFile) {
+        if (port < 0 || port > 65535)
+            throw new IllegalArgumentException(String.format("invalid port %d", port));
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid thread count %d", threads));
+
+        this.port = port;
+        this.threads = threads;
+        this.demoConfig = demoConfig;
+        this.tokenFile = tokenFile != null ? tokenFile :
+                new File(String.format("%s/target/app-ota-demo-server.token", System.getProperty("user.dir")));
+    }
+
+    public static AppOTADemoServerConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--port", "--threads", "--iot-stack-name", "--device-stack-name", "--token-file")
+                .parse(options);
+
+        String tokenFile = parsed.get("--token-file", null);
+
+        return new AppOTADemoServerConfig(
+                parsed.getInt("--port", 8421),
+                parsed.getInt("--threads", 4),
+                new AppOTADemoConfig(
+                        parsed.get("--iot-stack-name", AppOTADemoConfig.DEFAULT_IOT_STACK_NAME),
+                        parsed.get("--device-stack-name", AppOTADemoConfig.DEFAULT_DEVICE_STACK_NAME)),
+                tokenFile == null ? null : new File(tokenFile));
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    public AppOTADemoConfig getDemoConfig() {
+        return this.demoConfig;
+    }
+
+    public File getTokenFile() {
+        return this.tokenFile;
+    }
+}
@@ -1,8 +1,8 @@
 package com.amazonaws.rp.nightswatch.builder.appota;
 
+import com.amazonaws.rp.nightswatch.builder.utils.ClientRegistry;
 import com.amazonaws.rp.nightswatch.builder.utils.StackOutputQuerier;
 import com.amazonaws.services.iot.AWSIot;
-import com.amazonaws.services.iot.AWSIotClientBuilder;
 import com.amazonaws.services.iot.model.DescribeEndpointRequest;
 import com.amazonaws.services.iot.model.DescribeEndpointResult;
 import org.slf4j.Logger;
@@ -13,8 +13,15 @@ import java.io.IOException;
 public class AppOTADemoService {
     private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-app");
     private final StackOutputQuerier outputQuerier = new StackOutputQuerier();
+    private final AppOTADemoConfig config;
+
+    public AppOTADemoService(final AppOTADemoConfig config) {
+        this.config = config;
+    }
+
+    public void queryEndpoint() throws IOException {
+        String appOTADemoIoTStackName = this.config.getIoTStackName();
 
-    public void queryEndpoint(final String appOTADemoIoTStackName) throws IOException {
         String thingName = this.outputQuerier.query(this.log, appOTADemoIoTStackName, "thingname");
         if (thingName == null)
             throw new IllegalArgumentException(String.format(
@@ -24,7 +31,7 @@ public class AppOTADemoService {
         DescribeEndpointRequest req = new DescribeEndpointRequest();
         req.setEndpointType("iot:Data-ATS");
 
-        AWSIot client = AWSIotClientBuilder.defaultClient();
+        AWSIot client = ClientRegistry.iot();
         DescribeEndpointResult result = client.describeEndpoint(req);
         String endpoint = result.getEndpointAddress();
 
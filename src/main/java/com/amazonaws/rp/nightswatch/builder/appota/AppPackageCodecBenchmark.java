@@ -0,0 +1,95 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.PackageCompression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * Compares the codecs and levels the application packages can be recompressed with: the compressed size,
+ * the compression time and the decompression throughput, the latter is what the device pays on each update.
+ *
+ * The numbers are measured on this host, the decompression on a constrained device is slower in proportion.
+ */
+public class AppPackageCodecBenchmark {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-codec");
+
+    private final static String APP_PKG_NAME = "app_xxx_pkg";
+
+    public void run(final CodecBenchmarkConfig config) throws IOException {
+        System.out.println();
+        System.out.println(String.format("%-32s %-10s %12s %8s %12s %16s",
+                "package", "codec", "size", "ratio", "compress ms", "decompress MB/s"));
+
+        for (String arch : config.getArchs()) {
+            for (String containerFlag : config.getContainerFlags()) {
+                for (String version : config.getVersions()) {
+                    String packageSrcFileName = String.format("nw-app-ota-demo/app_%s_%s_%s/%s.tar.gz",
+                            arch, containerFlag, version, APP_PKG_NAME);
+                    URL packageSrc = getClass().getClassLoader().getResource(packageSrcFileName);
+                    if (packageSrc == null)
+                        throw new IllegalArgumentException(
+                                String.format("application package file %s not found", packageSrcFileName));
+
+                    byte[] tar;
+                    try (InputStream in = PackageCompression.GZIP.decompress(packageSrc.openStream())) {
+                        tar = in.readAllBytes();
+                    }
+
+                    String name = String.format("app_%s_%s_%s", arch, containerFlag, version);
+
+                    log.debug(String.format("benchmarking %d codecs on the package %s, %d bytes uncompressed ...",
+                            config.getCompressions().size(), name, tar.length));
+
+                    for (PackageCompression compression : config.getCompressions())
+                        this.measure(name, tar, compression, config.getRounds());
+                }
+            }
+        }
+    }
+
+    private void measure(final String name, final byte[] tar, final PackageCompression compression,
+                         final int rounds) throws IOException {
+        byte[] compressed = null;
+        long compressNanos = Long.MAX_VALUE;
+        long decompressNanos = Long.MAX_VALUE;
+
+        // the best round is reported, the first ones pay the warm up
+        for (int i = 0; i < rounds; i++) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(tar.length / 2);
+
+            long start = System.nanoTime();
+            try (OutputStream out = compression.compress(buffer)) {
+                out.write(tar);
+            }
+            compressNanos = Math.min(compressNanos, System.nanoTime() - start);
+
+            compressed = buffer.toByteArray();
+        }
+
+        byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            long size = 0;
+            try (InputStream in = compression.decompress(new ByteArrayInputStream(compressed))) {
+                for (int n = in.read(chunk); n >= 0; n = in.read(chunk))
+                    size += n;
+            }
+            decompressNanos = Math.min(decompressNanos, System.nanoTime() - start);
+
+            if (size != tar.length)
+                throw new IOException(String.format("%s decompressed %d bytes but %d expected",
+                        compression, size, tar.length));
+        }
+
+        System.out.println(String.format("%-32s %-10s %12d %7.1f%% %12.1f %16.1f",
+                name, compression, compressed.length, 100.0 * compressed.length / tar.length,
+                compressNanos / 1e6, tar.length / (decompressNanos / 1e9) / (1024 * 1024)));
+    }
+}
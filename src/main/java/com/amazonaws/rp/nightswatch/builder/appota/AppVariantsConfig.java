@@ -0,0 +1,71 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The application variants provisioned together, all combinations of the architectures,
+ * container flags and versions.
+ *
+ * Parsed from the command options:
+ * --archs=<arch>[,<arch>...]              default x64
+ * --flavors=<flag>[,<flag>...]            containerized and/or native, default both
+ * --versions=<version>[,<version>...]     default v1,v2
+ * --threads=<n>                           the staging and uploading concurrency, default 4
+ */
+public class AppVariantsConfig {
+    private final List<String> archs;
+    private final List<String> containerFlags;
+    private final List<String> versions;
+    private final int threads;
+
+    public AppVariantsConfig(final List<String> archs, final List<String> containerFlags,
+                             final List<String> versions, final int threads) {
+        if (archs.isEmpty() || containerFlags.isEmpty() || versions.isEmpty())
+            throw new IllegalArgumentException("no application variant to provision");
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid thread count %d", threads));
+
+        for (String containerFlag : containerFlags) {
+            if (!"containerized".equals(containerFlag) && !"native".equals(containerFlag))
+                throw new IllegalArgumentException(String.format("invalid application flavor %s", containerFlag));
+        }
+
+        this.archs = Collections.unmodifiableList(new ArrayList<>(archs));
+        this.containerFlags = Collections.unmodifiableList(new ArrayList<>(containerFlags));
+        this.versions = Collections.unmodifiableList(new ArrayList<>(versions));
+        this.threads = threads;
+    }
+
+    public static AppVariantsConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--archs", "--flavors", "--versions", "--threads")
+                .parse(options);
+
+        return new AppVariantsConfig(
+                parsed.getList("--archs", Collections.singletonList("x64")),
+                parsed.getList("--flavors", Arrays.asList("containerized", "native")),
+                parsed.getList("--versions", Arrays.asList("v1", "v2")),
+                parsed.getInt("--threads", 4));
+    }
+
+    public List<String> getArchs() {
+        return this.archs;
+    }
+
+    public List<String> getContainerFlags() {
+        return this.containerFlags;
+    }
+
+    public List<String> getVersions() {
+        return this.versions;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+}
@@ -0,0 +1,83 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+import com.amazonaws.rp.nightswatch.builder.utils.PackageCompression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The application packages and the compression options the codec benchmark compares.
+ *
+ * Parsed from the command options:
+ * --archs=<arch>[,<arch>...]              default x64
+ * --flavors=<flag>[,<flag>...]            containerized and/or native, default both
+ * --versions=<version>[,<version>...]     default v1
+ * --codecs=<codec>[:<level>][,...]        default gzip:6,gzip:9,xz:6,xz:9,zstd:3,zstd:19
+ * --rounds=<n>                            the best of n rounds is reported, default 3
+ */
+public class CodecBenchmarkConfig {
+    private final static String DEFAULT_CODECS = "gzip:6,gzip:9,xz:6,xz:9,zstd:3,zstd:19";
+
+    private final List<String> archs;
+    private final List<String> containerFlags;
+    private final List<String> versions;
+    private final List<PackageCompression> compressions;
+    private final int rounds;
+
+    public CodecBenchmarkConfig(final List<String> archs, final List<String> containerFlags,
+                                final List<String> versions, final List<PackageCompression> compressions,
+                                final int rounds) {
+        if (archs.isEmpty() || containerFlags.isEmpty() || versions.isEmpty())
+            throw new IllegalArgumentException("no application package to benchmark");
+        if (compressions.isEmpty())
+            throw new IllegalArgumentException("no package codec to benchmark");
+        if (rounds < 1)
+            throw new IllegalArgumentException(String.format("invalid round count %d", rounds));
+
+        this.archs = Collections.unmodifiableList(new ArrayList<>(archs));
+        this.containerFlags = Collections.unmodifiableList(new ArrayList<>(containerFlags));
+        this.versions = Collections.unmodifiableList(new ArrayList<>(versions));
+        this.compressions = Collections.unmodifiableList(new ArrayList<>(compressions));
+        this.rounds = rounds;
+    }
+
+    public static CodecBenchmarkConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--archs", "--flavors", "--versions", "--codecs", "--rounds")
+                .parse(options);
+
+        List<PackageCompression> compressions = new ArrayList<>();
+        for (String codec : parsed.getList("--codecs", Arrays.asList(DEFAULT_CODECS.split(","))))
+            compressions.add(PackageCompression.parse(codec));
+
+        return new CodecBenchmarkConfig(
+                parsed.getList("--archs", Collections.singletonList("x64")),
+                parsed.getList("--flavors", Arrays.asList("containerized", "native")),
+                parsed.getList("--versions", Collections.singletonList("v1")),
+                compressions,
+                parsed.getInt("--rounds", 3));
+    }
+
+    public List<String> getArchs() {
+        return this.archs;
+    }
+
+    public List<String> getContainerFlags() {
+        return this.containerFlags;
+    }
+
+    public List<String> getVersions() {
+        return this.versions;
+    }
+
+    public List<PackageCompression> getCompressions() {
+        return this.compressions;
+    }
+
+    public int getRounds() {
+        return this.rounds;
+    }
+}
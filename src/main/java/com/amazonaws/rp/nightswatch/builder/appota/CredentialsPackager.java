@@ -0,0 +1,142 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.ClientRegistry;
+import com.amazonaws.services.iot.AWSIot;
+import com.amazonaws.services.iot.model.CertificateDescription;
+import com.amazonaws.services.iot.model.DescribeCertificateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds the credentials package of the IoT device in memory, from the certificate described by AWS IoT
+ * and the keys in the jar. Nothing is written to the local file system, the private key in particular.
+ */
+public class CredentialsPackager {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-asset");
+
+    private final static String PUB_KEY_NAME = "nw-app-ota-demo-dev-public";
+    private final static String PRV_KEY_NAME = "nw-app-ota-demo-dev-private";
+    private final static String ROOT_CA_NAME = "root-ca.crt";
+
+    // fixed timestamp keeps the package byte-identical across runs, so the upload can be skipped
+    private final static LocalDateTime ENTRY_TIME = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    public final static String CERT_ENTRY_NAME = "cert.pem";
+    public final static String ROOT_CA_ENTRY_NAME = "root-ca.crt";
+    public final static String PUBLIC_KEY_ENTRY_NAME = "public.key";
+    public final static String PRIVATE_KEY_ENTRY_NAME = "private.key";
+
+    /**
+     * Packages the certificate with the device keys bundled in the jar.
+     */
+    public byte[] packageCertificate(final String certId) throws IOException {
+        return this.pack(this.describeCertificate(certId),
+                this.loadResource(String.format("nw-app-ota-demo/%s.key", PUB_KEY_NAME), "public key"),
+                this.loadResource(String.format("nw-app-ota-demo/%s.key", PRV_KEY_NAME), "private key"));
+    }
+
+    /**
+     * Packages many certificates concurrently.
+     *
+     * @return certificate ID -> the package, in the order of the IDs
+     */
+    public Map<String, byte[]> packageCertificates(final List<String> certIds, final int threads)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            Map<String, Future<byte[]>> futures = new LinkedHashMap<>();
+            for (String certId : certIds)
+                futures.put(certId, executor.submit(() -> this.packageCertificate(certId)));
+
+            Map<String, byte[]> packages = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<byte[]>> future : futures.entrySet())
+                packages.put(future.getKey(), future.getValue().get());
+
+            return packages;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted to package the device credentials", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("failed to package the device credentials", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Packages the certificate signed for the device identity generated by {@link DeviceKeyFactory}.
+     */
+    public byte[] pack(final String certificatePem, final DeviceKeyFactory.DeviceIdentity identity)
+            throws IOException {
+        return this.pack(certificatePem, identity.getPublicKeyPem().getBytes(StandardCharsets.US_ASCII),
+                identity.getPrivateKeyPem().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Zips the certificate, root CA and keys, the entries are in a fixed order with a fixed timestamp.
+     */
+    public byte[] pack(final String certificatePem, final byte[] publicKey, final byte[] privateKey)
+            throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(CERT_ENTRY_NAME, certificatePem.getBytes(StandardCharsets.UTF_8));
+        entries.put(ROOT_CA_ENTRY_NAME,
+                this.loadResource(String.format("nw-app-ota-demo/%s", ROOT_CA_NAME), "root CA certificate"));
+        entries.put(PUBLIC_KEY_ENTRY_NAME, publicKey);
+        entries.put(PRIVATE_KEY_ENTRY_NAME, privateKey);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        try (ZipOutputStream zipOut = new ZipOutputStream(buffer)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTimeLocal(ENTRY_TIME);
+                zipOut.putNextEntry(zipEntry);
+                zipOut.write(entry.getValue());
+                zipOut.closeEntry();
+            }
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private String describeCertificate(final String certId) {
+        AWSIot iotClient = ClientRegistry.iot();
+
+        log.debug(String.format("fetching certificate %s ...", certId));
+
+        DescribeCertificateRequest req = new DescribeCertificateRequest();
+        req.setCertificateId(certId);
+        CertificateDescription certDesc = iotClient.describeCertificate(req).getCertificateDescription();
+
+        log.info(String.format("the IoT device certificate %s is fetched, status: %s", certId, certDesc.getStatus()));
+
+        return certDesc.getCertificatePem();
+    }
+
+    private byte[] loadResource(final String fileName, final String description) throws IOException {
+        URL resource = getClass().getClassLoader().getResource(fileName);
+        if (resource == null)
+            throw new IllegalArgumentException(String.format("%s file %s not found", description, fileName));
+
+        try (InputStream in = resource.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Generates a unique key pair and the certificate signing request of each device, so no two devices share
+ * a private key. Only the JDK providers are used, the request is encoded in PKCS#10 DER by hand.
+ *
+ * The keys are in PEM, the public one in X.509 SubjectPublicKeyInfo and the private one in PKCS#8, the
+ * request subject is the thing name as the common name. AWS IoT signs the request by
+ * CreateCertificateFromCsr, the private key never leaves the process.
+ *
+ * An instance is thread safe, the generators and signers are kept per thread.
+ */
+public class DeviceKeyFactory {
+    public enum Algorithm {
+        EC_P256("EC", "SHA256withECDSA",
+                // ecdsa-with-SHA256 1.2.840.10045.4.3.2, no parameters
+                new byte[]{0x30, 0x0a, 0x06, 0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x04, 0x03, 0x02}),
+        RSA_2048("RSA", "SHA256withRSA",
+                // sha256WithRSAEncryption 1.2.840.113549.1.1.11, NULL parameters
+                new byte[]{0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01,
+                        0x01, 0x0b, 0x05, 0x00});
+
+        private final String keyAlgorithm;
+        private final String signatureAlgorithm;
+        private final byte[] signatureAlgorithmIdentifier;
+
+        Algorithm(final String keyAlgorithm, final String signatureAlgorithm,
+                  final byte[] signatureAlgorithmIdentifier) {
+            this.keyAlgorithm = keyAlgorithm;
+            this.signatureAlgorithm = signatureAlgorithm;
+            this.signatureAlgorithmIdentifier = signatureAlgorithmIdentifier;
+        }
+
+        /**
+         * @param name ec or rsa, case insensitive
+         */
+        public static Algorithm parse(final String name) {
+            switch (name.toLowerCase()) {
+                case "ec":
+                case "ec-p256":
+                    return EC_P256;
+                case "rsa":
+                case "rsa-2048":
+                    return RSA_2048;
+                default:
+                    throw new IllegalArgumentException(String.format("invalid key algorithm %s", name));
+            }
+        }
+    }
+
+    // commonName 2.5.4.3
+    private final static byte[] CN_OID = {0x06, 0x03, 0x55, 0x04, 0x03};
+
+    private final Algorithm algorithm;
+    private final ThreadLocal<KeyPairGenerator> generators;
+    private final ThreadLocal<Signature> signers;
+
+    public DeviceKeyFactory(final Algorithm algorithm) {
+        this.algorithm = algorithm;
+        this.generators = ThreadLocal.withInitial(this::newGenerator);
+        this.signers = ThreadLocal.withInitial(this::newSigner);
+    }
+
+    public Algorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * @param commonName the subject of the request, the thing name
+     */
+    public DeviceIdentity generate(final String commonName) {
+        KeyPair keyPair = this.generators.get().generateKeyPair();
+
+        try {
+            byte[] info = der(0x30,
+                    new byte[]{0x02, 0x01, 0x00},                   // version 0
+                    subject(commonName),
+                    keyPair.getPublic().getEncoded(),               // SubjectPublicKeyInfo
+                    new byte[]{(byte) 0xa0, 0x00});                 // no attributes
+
+            Signature signer = this.signers.get();
+            signer.initSign(keyPair.getPrivate());
+            signer.update(info);
+            byte[] signature = signer.sign();
+
+            byte[] csr = der(0x30, info, this.algorithm.signatureAlgorithmIdentifier,
+                    der(0x03, new byte[]{0x00}, signature));        // BIT STRING, no unused bits
+
+            return new DeviceIdentity(commonName,
+                    pem("PUBLIC KEY", keyPair.getPublic().getEncoded()),
+                    pem("PRIVATE KEY", keyPair.getPrivate().getEncoded()),
+                    pem("CERTIFICATE REQUEST", csr));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(String.format(
+                    "failed to sign the certificate request of %s: %s", commonName, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Generates the identities on a worker pool, each one is handed to the consumer as soon as it is ready,
+     * in no particular order and from the worker threads.
+     */
+    public void generate(final List<String> commonNames, final int threads, final Consumer<DeviceIdentity> consumer)
+            throws InterruptedException {
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid thread count %d", threads));
+        if (commonNames.isEmpty())
+            return;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, commonNames.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(commonNames.size());
+            for (String commonName : commonNames)
+                futures.add(executor.submit(() -> consumer.accept(this.generate(commonName))));
+
+            for (Future<?> future : futures)
+                future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("failed to generate the device identities", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private KeyPairGenerator newGenerator() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(this.algorithm.keyAlgorithm);
+            if (this.algorithm == Algorithm.EC_P256)
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+            else
+                generator.initialize(new RSAKeyGenParameterSpec(2048, RSAKeyGenParameterSpec.F4));
+            return generator;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(String.format(
+                    "key algorithm %s is not supported: %s", this.algorithm, e.getMessage()), e);
+        }
+    }
+
+    private Signature newSigner() {
+        try {
+            return Signature.getInstance(this.algorithm.signatureAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(String.format(
+                    "signature algorithm %s is not supported", this.algorithm.signatureAlgorithm), e);
+        }
+    }
+
+    // Name: SEQUENCE OF SET OF SEQUENCE { commonName, UTF8String }
+    private static byte[] subject(final String commonName) {
+        return der(0x30, der(0x31, der(0x30, CN_OID, der(0x0c, commonName.getBytes(StandardCharsets.UTF_8)))));
+    }
+
+    private static byte[] der(final int tag, final byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents)
+            length += content.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--)
+                out.write(length >>> (i * 8));
+        }
+        for (byte[] content : contents)
+            out.write(content, 0, content.length);
+
+        return out.toByteArray();
+    }
+
+    private static String pem(final String type, final byte[] der) {
+        return String.format("-----BEGIN %s-----\n%s\n-----END %s-----\n", type,
+                Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der), type);
+    }
+
+    /**
+     * The keys and the certificate signing request of a device, all in PEM.
+     */
+    public static class DeviceIdentity {
+        private final String commonName;
+        private final String publicKeyPem;
+        private final String privateKeyPem;
+        private final String csrPem;
+
+        private DeviceIdentity(final String commonName, final String publicKeyPem, final String privateKeyPem,
+                               final String csrPem) {
+            this.commonName = commonName;
+            this.publicKeyPem = publicKeyPem;
+            this.privateKeyPem = privateKeyPem;
+            this.csrPem = csrPem;
+        }
+
+        public String getCommonName() {
+            return this.commonName;
+        }
+
+        public String getPublicKeyPem() {
+            return this.publicKeyPem;
+        }
+
+        public String getPrivateKeyPem() {
+            return this.privateKeyPem;
+        }
+
+        public String getCsrPem() {
+            return this.csrPem;
+        }
+    }
+}
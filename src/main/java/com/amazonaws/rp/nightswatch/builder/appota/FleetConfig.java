@@ -0,0 +1,92 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The fleet of the devices provisioned in place of the single demo device.
+ *
+ * Parsed from the command options, the fleet stacks take the same ones from the CDK context by the
+ * names without the leading `--`:
+ * --fleet-size=<n>             the devices named nw-app-ota-demo-dev-00001 onward
+ * --fleet-manifest=<file>      the devices and their thing groups listed in the file, see {@link FleetManifest}
+ * --thing-group=<name>         the group the devices are put into by default, default nw-app-ota-demo-fleet
+ * --fleet-shard-size=<n>       the things in a fleet stack, default 200, at most 499
+ * --key-algorithm=<name>       ec (P-256) or rsa (2048 bits) keys generated for each device, or iot to let
+ *                              AWS IoT create them, default ec
+ * --threads=<n>                the devices provisioned concurrently, default 8
+ */
+public class FleetConfig {
+    private final int fleetSize;
+    private final String manifestPath;
+    private final String thingGroup;
+    private final int shardSize;
+    private final DeviceKeyFactory.Algorithm keyAlgorithm;
+    private final int threads;
+
+    /**
+     * @param keyAlgorithm null to let AWS IoT create the keys
+     */
+    public FleetConfig(final int fleetSize, final String manifestPath, final String thingGroup,
+                       final int shardSize, final DeviceKeyFactory.Algorithm keyAlgorithm, final int threads) {
+        if (fleetSize > 0 == (manifestPath != null))
+            throw new IllegalArgumentException("either the fleet size or the fleet manifest is required");
+        if (fleetSize < 0)
+            throw new IllegalArgumentException(String.format("invalid fleet size %d", fleetSize));
+        if (shardSize < 1 || shardSize > FleetManifest.MAX_SHARD_SIZE)
+            throw new IllegalArgumentException(String.format(
+                    "invalid fleet shard size %d, 1 to %d allowed", shardSize, FleetManifest.MAX_SHARD_SIZE));
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid thread count %d", threads));
+
+        this.fleetSize = fleetSize;
+        this.manifestPath = manifestPath;
+        this.thingGroup = thingGroup;
+        this.shardSize = shardSize;
+        this.keyAlgorithm = keyAlgorithm;
+        this.threads = threads;
+    }
+
+    public static FleetConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--fleet-size", "--fleet-manifest", "--thing-group", "--fleet-shard-size",
+                        "--key-algorithm", "--threads")
+                .parse(options);
+
+        String keyAlgorithm = parsed.get("--key-algorithm", null);
+
+        return new FleetConfig(
+                parsed.getInt("--fleet-size", 0),
+                parsed.get("--fleet-manifest", null),
+                parsed.get("--thing-group", FleetManifest.DEFAULT_THING_GROUP),
+                parsed.getInt("--fleet-shard-size", FleetManifest.DEFAULT_SHARD_SIZE),
+                keyAlgorithm == null ? DeviceKeyFactory.Algorithm.EC_P256 :
+                        "iot".equalsIgnoreCase(keyAlgorithm) ? null : DeviceKeyFactory.Algorithm.parse(keyAlgorithm),
+                parsed.getInt("--threads", 8));
+    }
+
+    public FleetManifest loadManifest() throws IOException {
+        if (this.manifestPath != null)
+            return FleetManifest.load(new File(this.manifestPath), this.thingGroup);
+
+        return FleetManifest.generate(this.fleetSize, this.thingGroup);
+    }
+
+    public int getShardSize() {
+        return this.shardSize;
+    }
+
+    /**
+     * @return null if AWS IoT creates the keys
+     */
+    public DeviceKeyFactory.Algorithm getKeyAlgorithm() {
+        return this.keyAlgorithm;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+}
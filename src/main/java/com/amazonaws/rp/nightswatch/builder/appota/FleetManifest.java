@@ -0,0 +1,159 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The devices of a fleet and the thing groups each one is put into, shared by the fleet stacks and the
+ * credentials provisioning, so both sides work on the same things.
+ *
+ * A manifest has one device a line, the thing name followed by its thing groups, separated by commas:
+ * <pre>
+ * # comment
+ * nw-app-ota-demo-dev-00001,nw-app-ota-demo-fleet,canary
+ * nw-app-ota-demo-dev-00002
+ * </pre>
+ * The device without any group is put into the default one.
+ */
+public class FleetManifest {
+    public final static String THING_NAME_PREFIX = "nw-app-ota-demo-dev";
+    public final static String DEFAULT_THING_GROUP = "nw-app-ota-demo-fleet";
+
+    // CloudFormation allows 500 resources in a stack, one thing each, one left for the CDK metadata
+    public final static int MAX_SHARD_SIZE = 499;
+    // a smaller template and a shorter stack operation each
+    public final static int DEFAULT_SHARD_SIZE = 200;
+
+    private final static int MAX_THING_NAME_LENGTH = 128;
+
+    private final Map<String, List<String>> devices;
+
+    private FleetManifest(final Map<String, List<String>> devices) {
+        if (devices.isEmpty())
+            throw new IllegalArgumentException("no device in the fleet");
+
+        this.devices = Collections.unmodifiableMap(devices);
+    }
+
+    /**
+     * @return the fleet of the devices named in sequence, all of them in the group
+     */
+    public static FleetManifest generate(final int size, final String thingGroup) {
+        if (size < 1)
+            throw new IllegalArgumentException(String.format("invalid fleet size %d", size));
+        validateName(thingGroup, "thing group");
+
+        Map<String, List<String>> devices = new LinkedHashMap<>(size * 2);
+        for (int i = 1; i <= size; i++)
+            devices.put(thingName(i), Collections.singletonList(thingGroup));
+
+        return new FleetManifest(devices);
+    }
+
+    public static FleetManifest load(final File file, final String defaultThingGroup) throws IOException {
+        return parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+                file.getPath(), defaultThingGroup);
+    }
+
+    public static FleetManifest parse(final String content, final String source, final String defaultThingGroup) {
+        Map<String, List<String>> devices = new LinkedHashMap<>();
+
+        int lineNo = 0;
+        for (String line : content.split("\n")) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            List<String> names = new ArrayList<>();
+            for (String name : line.split(","))
+                names.add(name.trim());
+
+            String thingName = names.get(0);
+            List<String> thingGroups = names.size() > 1 ?
+                    new ArrayList<>(new LinkedHashSet<>(names.subList(1, names.size()))) :
+                    Collections.singletonList(defaultThingGroup);
+
+            try {
+                validateName(thingName, "thing");
+                for (String thingGroup : thingGroups)
+                    validateName(thingGroup, "thing group");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format(
+                        "invalid device at line %d of the fleet manifest %s: %s", lineNo, source, e.getMessage()));
+            }
+
+            if (devices.put(thingName, Collections.unmodifiableList(thingGroups)) != null)
+                throw new IllegalArgumentException(String.format(
+                        "duplicated device %s at line %d of the fleet manifest %s", thingName, lineNo, source));
+        }
+
+        return new FleetManifest(devices);
+    }
+
+    public static String thingName(final int index) {
+        return String.format("%s-%05d", THING_NAME_PREFIX, index);
+    }
+
+    public int size() {
+        return this.devices.size();
+    }
+
+    public List<String> getThingNames() {
+        return new ArrayList<>(this.devices.keySet());
+    }
+
+    public List<String> getThingGroups(final String thingName) {
+        List<String> thingGroups = this.devices.get(thingName);
+        return thingGroups != null ? thingGroups : Collections.emptyList();
+    }
+
+    /**
+     * @return all groups the devices are put into, in the order they appear
+     */
+    public Set<String> getAllThingGroups() {
+        Set<String> thingGroups = new LinkedHashSet<>();
+        for (List<String> groups : this.devices.values())
+            thingGroups.addAll(groups);
+        return thingGroups;
+    }
+
+    /**
+     * Splits the things into the shards of at most the given size, one stack each.
+     */
+    public List<List<String>> shards(final int shardSize) {
+        if (shardSize < 1 || shardSize > MAX_SHARD_SIZE)
+            throw new IllegalArgumentException(String.format(
+                    "invalid fleet shard size %d, 1 to %d allowed", shardSize, MAX_SHARD_SIZE));
+
+        List<String> thingNames = this.getThingNames();
+        List<List<String>> shards = new ArrayList<>();
+        for (int i = 0; i < thingNames.size(); i += shardSize)
+            shards.add(thingNames.subList(i, Math.min(i + shardSize, thingNames.size())));
+
+        return shards;
+    }
+
+    /**
+     * @return the content in the manifest format, loaded back to the same fleet
+     */
+    public String render() {
+        StringBuilder content = new StringBuilder(this.devices.size() * 48);
+        for (Map.Entry<String, List<String>> device : this.devices.entrySet()) {
+            content.append(device.getKey());
+            for (String thingGroup : device.getValue())
+                content.append(',').append(thingGroup);
+            content.append('\n');
+        }
+        return content.toString();
+    }
+
+    private static void validateName(final String name, final String description) {
+        if (name == null || name.isEmpty() || name.length() > MAX_THING_NAME_LENGTH ||
+                !name.matches("[a-zA-Z0-9:_-]+"))
+            throw new IllegalArgumentException(String.format("invalid %s name %s", description, name));
+    }
+}
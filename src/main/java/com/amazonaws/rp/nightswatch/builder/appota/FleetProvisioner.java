@@ -0,0 +1,306 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.ClientRegistry;
+import com.amazonaws.rp.nightswatch.builder.utils.Metrics;
+import com.amazonaws.rp.nightswatch.builder.utils.S3;
+import com.amazonaws.services.iot.AWSIot;
+import com.amazonaws.services.iot.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provisions the credentials of the fleet devices, the things are created by the fleet stacks.
+ *
+ * Each device gets its own keys, generated on the provisioning workers and signed by AWS IoT from the
+ * certificate signing request, or created by AWS IoT as well. The certificate is attached to the device
+ * policy and the thing, and the thing is put into its groups. The credentials package is uploaded to
+ * credentials/<thing-name>.zip in the device files bucket, the private key is never written to the local
+ * file system. The devices with a package already uploaded are skipped, so a failed run is resumed by
+ * running it again.
+ *
+ * The manifest of the fleet is saved in the bucket too, to clean the certificates up without the options.
+ */
+public class FleetProvisioner {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-fleet");
+    private final S3 s3Util = new S3();
+    private final CredentialsPackager credentialsPackager = new CredentialsPackager();
+
+    public final static String CREDENTIALS_PREFIX = "credentials/";
+    public final static String MANIFEST_FILE_NAME = "fleet/manifest.csv";
+
+    // the failed devices named in the error
+    private final static int MAX_FAILURES_REPORTED = 5;
+
+    public void provision(final FleetConfig config, final String devFileBucketName,
+                          final String policyName) throws IOException {
+        FleetManifest manifest = config.loadManifest();
+
+        // saved first, the certificates created by a partial run are cleaned up as well
+        this.s3Util.uploadBytes(this.log, devFileBucketName, MANIFEST_FILE_NAME,
+                manifest.render().getBytes(StandardCharsets.UTF_8));
+
+        try (Metrics.Span span = Metrics.span("phase.prepare-asset.thing-groups")) {
+            for (String thingGroup : manifest.getAllThingGroups())
+                this.createThingGroup(thingGroup);
+            span.ok();
+        }
+
+        // one listing instead of a request for each device
+        Set<String> provisioned = this.s3Util.listObjectNames(this.log, devFileBucketName, CREDENTIALS_PREFIX);
+
+        List<String> pending = new ArrayList<>();
+        for (String thingName : manifest.getThingNames()) {
+            if (!provisioned.contains(credentialsObjectName(thingName)))
+                pending.add(thingName);
+        }
+        Metrics.count("fleet.devices.skipped", manifest.size() - pending.size());
+
+        log.info(String.format("provisioning %d devices of the fleet, %d are provisioned already ...",
+                pending.size(), manifest.size() - pending.size()));
+
+        DeviceKeyFactory keyFactory = config.getKeyAlgorithm() != null ?
+                new DeviceKeyFactory(config.getKeyAlgorithm()) : null;
+
+        long started = System.nanoTime();
+        int failed = this.forEachDevice(pending, config.getThreads(), "provision", thingName -> {
+            try (Metrics.Span span = Metrics.span("fleet.provision-device")) {
+                this.provisionDevice(thingName, manifest.getThingGroups(thingName), keyFactory,
+                        devFileBucketName, policyName);
+                span.ok();
+            }
+        });
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        System.out.println();
+        System.out.println("Outputs:");
+        System.out.println(String.format("\tdevices: %d", manifest.size()));
+        System.out.println(String.format("\tprovisioned: %d", pending.size() - failed));
+        System.out.println(String.format("\tskipped: %d", manifest.size() - pending.size()));
+        System.out.println(String.format("\tfailed: %d", failed));
+        System.out.println(String.format("\tdevices/s: %.1f", seconds > 0 ? (pending.size() - failed) / seconds : 0));
+        System.out.println(String.format("\tcredentials: s3://%s/%s<thing-name>.zip",
+                devFileBucketName, CREDENTIALS_PREFIX));
+
+        if (failed > 0)
+            throw new IllegalStateException(String.format(
+                    "failed to provision %d of %d devices, run prepare-asset again to resume", failed, pending.size()));
+    }
+
+    /**
+     * Detaches, deactivates and deletes the certificates of the devices in the manifest saved by
+     * {@link #provision}, and deletes their thing groups. Nothing to do if no fleet was provisioned.
+     */
+    public void deProvision(final String devFileBucketName, final String policyName, final int threads) {
+        String content = this.s3Util.downloadString(this.log, devFileBucketName, MANIFEST_FILE_NAME);
+        if (content == null) {
+            log.debug("no fleet is provisioned");
+            return;
+        }
+
+        FleetManifest manifest = FleetManifest.parse(content, MANIFEST_FILE_NAME, FleetManifest.DEFAULT_THING_GROUP);
+
+        AtomicLong certificates = new AtomicLong();
+        int failed = this.forEachDevice(manifest.getThingNames(), threads, "clean up", thingName -> {
+            try (Metrics.Span span = Metrics.span("fleet.cleanup-device")) {
+                certificates.addAndGet(this.deleteCertificates(thingName, policyName));
+                span.ok();
+            }
+        });
+
+        if (failed > 0)
+            throw new IllegalStateException(String.format(
+                    "failed to clean up %d of %d devices of the fleet", failed, manifest.size()));
+
+        for (String thingGroup : manifest.getAllThingGroups())
+            this.deleteThingGroup(thingGroup);
+
+        log.info(String.format("%d certificates of %d devices of the fleet are deleted",
+                certificates.get(), manifest.size()));
+    }
+
+    public static String credentialsObjectName(final String thingName) {
+        return String.format("%s%s.zip", CREDENTIALS_PREFIX, thingName);
+    }
+
+    /**
+     * @return the count of the devices failed
+     */
+    private int forEachDevice(final List<String> thingNames, final int threads, final String action,
+                              final DeviceTask task) {
+        if (thingNames.isEmpty())
+            return 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, thingNames.size()));
+        try {
+            Map<String, Future<Void>> futures = new LinkedHashMap<>();
+            for (String thingName : thingNames)
+                futures.put(thingName, executor.submit(() -> {
+                    task.run(thingName);
+                    return null;
+                }));
+
+            int failed = 0;
+            for (Map.Entry<String, Future<Void>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (failed <= MAX_FAILURES_REPORTED)
+                        log.error(String.format("failed to %s the device %s: %s",
+                                action, future.getKey(), cause.getMessage()));
+                }
+            }
+
+            if (failed > MAX_FAILURES_REPORTED)
+                log.error(String.format("... and %d more devices failed", failed - MAX_FAILURES_REPORTED));
+
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("interrupted to %s the devices of the fleet", action), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void provisionDevice(final String thingName, final List<String> thingGroups,
+                                 final DeviceKeyFactory keyFactory, final String devFileBucketName,
+                                 final String policyName) throws IOException {
+        AWSIot iotClient = ClientRegistry.iot();
+
+        String certArn;
+        String certId;
+        byte[] credentials;
+        if (keyFactory != null) {
+            DeviceKeyFactory.DeviceIdentity identity;
+            try (Metrics.Span span = Metrics.span("fleet.generate-keys")) {
+                identity = keyFactory.generate(thingName);
+                span.ok();
+            }
+
+            CreateCertificateFromCsrResult cert = iotClient.createCertificateFromCsr(
+                    new CreateCertificateFromCsrRequest()
+                            .withCertificateSigningRequest(identity.getCsrPem())
+                            .withSetAsActive(true));
+            certArn = cert.getCertificateArn();
+            certId = cert.getCertificateId();
+            credentials = this.credentialsPackager.pack(cert.getCertificatePem(), identity);
+        } else {
+            CreateKeysAndCertificateResult cert = iotClient.createKeysAndCertificate(
+                    new CreateKeysAndCertificateRequest().withSetAsActive(true));
+            certArn = cert.getCertificateArn();
+            certId = cert.getCertificateId();
+            credentials = this.credentialsPackager.pack(cert.getCertificatePem(),
+                    cert.getKeyPair().getPublicKey().getBytes(StandardCharsets.US_ASCII),
+                    cert.getKeyPair().getPrivateKey().getBytes(StandardCharsets.US_ASCII));
+        }
+
+        boolean policyAttached = false;
+        boolean principalAttached = false;
+        try {
+            iotClient.attachPolicy(new AttachPolicyRequest()
+                    .withPolicyName(policyName)
+                    .withTarget(certArn));
+            policyAttached = true;
+
+            iotClient.attachThingPrincipal(new AttachThingPrincipalRequest()
+                    .withThingName(thingName)
+                    .withPrincipal(certArn));
+            principalAttached = true;
+
+            for (String thingGroup : thingGroups)
+                iotClient.addThingToThingGroup(new AddThingToThingGroupRequest()
+                        .withThingName(thingName)
+                        .withThingGroupName(thingGroup));
+
+            // the last step, the device is provisioned only if its package is uploaded
+            this.s3Util.uploadBytes(this.log, devFileBucketName, credentialsObjectName(thingName), credentials);
+        } catch (RuntimeException e) {
+            // the active certificate is not left behind, the next run creates a new one for the device
+            try {
+                this.deleteCertificate(thingName, policyName, certArn, principalAttached, policyAttached);
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        log.debug(String.format("the device %s is provisioned with the certificate %s",
+                thingName, certId));
+    }
+
+    private int deleteCertificates(final String thingName, final String policyName) {
+        AWSIot iotClient = ClientRegistry.iot();
+
+        // all pages are listed before any principal is detached, which would shift the pages
+        List<String> principals = new ArrayList<>();
+        ListThingPrincipalsRequest req = new ListThingPrincipalsRequest().withThingName(thingName);
+        ListThingPrincipalsResult result;
+        try {
+            do {
+                result = iotClient.listThingPrincipals(req);
+                principals.addAll(result.getPrincipals());
+                req.setNextToken(result.getNextToken());
+            } while (result.getNextToken() != null);
+        } catch (ResourceNotFoundException e) {
+            // the thing is deleted with its fleet stack already
+            return 0;
+        }
+
+        for (String principal : principals)
+            this.deleteCertificate(thingName, policyName, principal, true, true);
+
+        return principals.size();
+    }
+
+    private void deleteCertificate(final String thingName, final String policyName, final String certArn,
+                                   final boolean principalAttached, final boolean policyAttached) {
+        AWSIot iotClient = ClientRegistry.iot();
+
+        if (principalAttached)
+            iotClient.detachThingPrincipal(new DetachThingPrincipalRequest()
+                    .withThingName(thingName)
+                    .withPrincipal(certArn));
+
+        if (policyAttached)
+            iotClient.detachPolicy(new DetachPolicyRequest()
+                    .withPolicyName(policyName)
+                    .withTarget(certArn));
+
+        // arn:aws:iot:<region>:<account>:cert/<certificate-id>
+        String certId = certArn.substring(certArn.lastIndexOf('/') + 1);
+
+        iotClient.updateCertificate(new UpdateCertificateRequest()
+                .withCertificateId(certId)
+                .withNewStatus("INACTIVE"));
+
+        iotClient.deleteCertificate(new DeleteCertificateRequest()
+                .withCertificateId(certId));
+    }
+
+    private void createThingGroup(final String thingGroup) {
+        try {
+            ClientRegistry.iot().createThingGroup(new CreateThingGroupRequest().withThingGroupName(thingGroup));
+            log.debug(String.format("the thing group %s is created", thingGroup));
+        } catch (ResourceAlreadyExistsException e) {
+            log.debug(String.format("the thing group %s exists already", thingGroup));
+        }
+    }
+
+    private void deleteThingGroup(final String thingGroup) {
+        ClientRegistry.iot().deleteThingGroup(new DeleteThingGroupRequest().withThingGroupName(thingGroup));
+        log.debug(String.format("the thing group %s is deleted", thingGroup));
+    }
+
+    @FunctionalInterface
+    private interface DeviceTask {
+        void run(String thingName) throws Exception;
+    }
+}
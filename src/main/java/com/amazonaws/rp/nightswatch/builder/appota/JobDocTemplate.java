@@ -0,0 +1,187 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The deploy and destroy job document templates. A template is parsed once and cached, each rendering
+ * only writes the fields through a JSON generator, the typed parameters replace the template values.
+ *
+ * The compact form is sent over the wire to the device, the indented form is for the console only.
+ */
+public class JobDocTemplate {
+    private final static ObjectMapper JSON = new ObjectMapper();
+    private final static JsonFactory JSON_FACTORY = JSON.getFactory();
+
+    private final static Map<String, JobDocTemplate> CACHE = new ConcurrentHashMap<>();
+
+    private final static String PKG_URL_FORMAT = "${aws:iot:s3-presigned-url:https://s3.amazonaws.com/%s/%s}";
+
+    private final JsonNode template;
+
+    private JobDocTemplate(final JsonNode template) {
+        this.template = template;
+    }
+
+    public static JobDocTemplate load(final String resourceName) {
+        return CACHE.computeIfAbsent(resourceName, name -> {
+            URL resource = JobDocTemplate.class.getClassLoader().getResource(name);
+            if (resource == null)
+                throw new IllegalArgumentException(String.format("job document template %s not found", name));
+
+            try (InputStream in = resource.openStream()) {
+                JsonNode node = JSON.readTree(in);
+                if (!node.isObject())
+                    throw new IllegalArgumentException(String.format("invalid job document template %s", name));
+                return new JobDocTemplate(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * @return the URL of the object, pre-signed by IoT when the job execution is delivered to the device
+     */
+    public static String pkgUrl(final String bucketName, final String objectName) {
+        return String.format(PKG_URL_FORMAT, bucketName, objectName);
+    }
+
+    /**
+     * @return the compact document sent to the device
+     */
+    public byte[] render(final Params params) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            this.render(generator, params);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the indented document for the console
+     */
+    public String renderForConsole(final Params params) throws IOException {
+        DefaultPrettyPrinter printer = new DefaultPrettyPrinter()
+                .withObjectIndenter(new DefaultIndenter("  ", "\n"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.setPrettyPrinter(printer);
+            this.render(generator, params);
+        }
+
+        String doc = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        return String.format("\t%s", doc.replace("\n", "\n\t"));
+    }
+
+    private void render(final JsonGenerator generator, final Params params) throws IOException {
+        generator.writeStartObject();
+
+        Iterator<Map.Entry<String, JsonNode>> fields = this.template.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+
+            if (params.fields.containsKey(field.getKey())) {
+                generator.writeStringField(field.getKey(), params.fields.get(field.getKey()));
+                continue;
+            }
+
+            switch (field.getKey()) {
+                case "operate":
+                    if (params.operate != null) {
+                        generator.writeStringField(field.getKey(), params.operate);
+                        continue;
+                    }
+                    break;
+                case "app_name":
+                    if (params.appName != null) {
+                        generator.writeStringField(field.getKey(), params.appName);
+                        continue;
+                    }
+                    break;
+                case "pkg_url":
+                    if (params.bucketName != null && params.pkgObjectName != null) {
+                        generator.writeStringField(field.getKey(),
+                                pkgUrl(params.bucketName, params.pkgObjectName));
+                        continue;
+                    }
+                    break;
+                case "pkg_md5":
+                    if (params.pkgMd5 != null) {
+                        generator.writeStringField(field.getKey(), params.pkgMd5);
+                        continue;
+                    }
+                    break;
+                case "use_container":
+                    if (params.useContainer != null) {
+                        generator.writeBooleanField(field.getKey(), params.useContainer);
+                        continue;
+                    }
+                    break;
+            }
+
+            // the value of the template
+            generator.writeFieldName(field.getKey());
+            JSON.writeTree(generator, field.getValue());
+        }
+
+        // the fields the template has not
+        for (Map.Entry<String, String> field : params.fields.entrySet()) {
+            if (!this.template.has(field.getKey()))
+                generator.writeStringField(field.getKey(), field.getValue());
+        }
+
+        generator.writeEndObject();
+    }
+
+    /**
+     * The parameters of a job document, null to keep the value of the template.
+     */
+    public static class Params {
+        private final String bucketName;
+        private final String appName;
+        private final String pkgObjectName;
+        private final String pkgMd5;
+        private final Boolean useContainer;
+        private final String operate;
+        private final Map<String, String> fields;
+
+        public Params(final String bucketName, final String appName, final String pkgObjectName,
+                      final String pkgMd5, final Boolean useContainer) {
+            this(bucketName, appName, pkgObjectName, pkgMd5, useContainer, null, Collections.emptyMap());
+        }
+
+        /**
+         * @param operate the operation of the document, e.g. patch_app_pkg
+         * @param fields  the string fields to set, added to the document if the template has not
+         */
+        public Params(final String bucketName, final String appName, final String pkgObjectName,
+                      final String pkgMd5, final Boolean useContainer, final String operate,
+                      final Map<String, String> fields) {
+            this.bucketName = bucketName;
+            this.appName = appName;
+            this.pkgObjectName = pkgObjectName;
+            this.pkgMd5 = pkgMd5;
+            this.useContainer = useContainer;
+            this.operate = operate;
+            this.fields = Collections.unmodifiableMap(new LinkedHashMap<>(fields));
+        }
+    }
+}
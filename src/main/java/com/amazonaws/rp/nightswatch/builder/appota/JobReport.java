@@ -0,0 +1,263 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.DurationHistogram;
+import com.amazonaws.rp.nightswatch.builder.utils.IoTCore;
+import com.amazonaws.services.iot.model.JobExecution;
+import com.amazonaws.services.iot.model.JobExecutionStatus;
+import com.amazonaws.services.iot.model.JobExecutionSummary;
+import com.amazonaws.services.iot.model.JobExecutionSummaryForJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reports how the rollouts of the application jobs went: the executions in each status, the success and
+ * failure rates, the percentiles of the time from queued to in progress to succeeded, and the most frequent
+ * reasons of the failed executions.
+ *
+ * The executions of each status are paged through concurrently and folded into the counters and histograms
+ * page by page, the failed ones are described in bounded parallel, so the memory stays flat however many
+ * devices a job targets.
+ */
+public class JobReport {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-job-report");
+    private final IoTCore iot = new IoTCore();
+
+    private final static Set<String> FAILED_STATUSES = new HashSet<>(Arrays.asList(
+            JobExecutionStatus.FAILED.toString(), JobExecutionStatus.TIMED_OUT.toString(),
+            JobExecutionStatus.REJECTED.toString()));
+    // bounds the distinct failure reasons kept, the others are counted together
+    private final static int MAX_DISTINCT_REASONS = 1000;
+    private final static String OTHER_REASONS = "(other reasons)";
+    private final static int MAX_REASON_LENGTH = 120;
+    private final static long PROGRESS_INTERVAL = 10000;
+
+    public void run(final JobReportConfig config) throws InterruptedException {
+        Map<String, List<String>> rollouts = this.resolveRollouts(config.getJobIDs());
+        if (rollouts.isEmpty()) {
+            log.info("no job found");
+            return;
+        }
+
+        ExecutorService scanner = Executors.newFixedThreadPool(config.getScanConcurrency());
+        ExecutorService describer = Executors.newFixedThreadPool(config.getDetailConcurrency());
+        // the failed executions queued to describe, the scan waits when they pile up
+        int detailPermits = config.getDetailConcurrency() * 4;
+        Semaphore details = new Semaphore(detailPermits);
+
+        Map<String, Rollout> reports = new LinkedHashMap<>();
+        List<CompletableFuture<Long>> scans = new ArrayList<>();
+
+        try {
+            for (Map.Entry<String, List<String>> entry : rollouts.entrySet()) {
+                Rollout rollout = new Rollout(entry.getKey(), entry.getValue().size());
+                reports.put(entry.getKey(), rollout);
+
+                for (String jobID : entry.getValue()) {
+                    for (JobExecutionStatus status : JobExecutionStatus.values()) {
+                        scans.add(CompletableFuture.supplyAsync(() -> this.iot.scanJobExecutions(
+                                this.log, jobID, status.toString(), page -> {
+                                    for (JobExecutionSummaryForJob summary : page)
+                                        rollout.record(jobID, summary, details, describer);
+                                }), scanner));
+                    }
+                }
+            }
+
+            for (CompletableFuture<Long> scan : scans) {
+                try {
+                    scan.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    throw e;
+                }
+            }
+
+            // all the descriptions in flight are done once all the permits are back
+            details.acquire(detailPermits);
+        } finally {
+            scanner.shutdownNow();
+            describer.shutdownNow();
+        }
+
+        System.out.println();
+        System.out.println("Outputs:");
+        System.out.println("job report:");
+        for (Rollout rollout : reports.values())
+            rollout.print(config.getMaxReasons());
+    }
+
+    /**
+     * @return job ID -> the job and its batches, `<job-id>-<n>`
+     */
+    private Map<String, List<String>> resolveRollouts(final List<String> jobIDs) {
+        List<String> existing = this.iot.listJobIDs(this.log,
+                jobIDs.isEmpty() ? AppOTADemoApplication.JOB_ID_PREFIX : "");
+        Map<String, List<String>> rollouts = new LinkedHashMap<>();
+
+        List<String> roots = jobIDs;
+        if (roots.isEmpty()) {
+            // the batches are reported with their first job
+            Set<String> all = new HashSet<>(existing);
+            roots = existing.stream()
+                    .filter(id -> !(id.matches(".*-\\d+") && all.contains(id.replaceFirst("-\\d+$", ""))))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for (String jobID : roots) {
+            Pattern batch = Pattern.compile(Pattern.quote(jobID) + "-\\d+");
+            List<String> members = new ArrayList<>();
+            members.add(jobID);
+            for (String id : existing) {
+                if (batch.matcher(id).matches())
+                    members.add(id);
+            }
+            rollouts.put(jobID, members);
+        }
+
+        return rollouts;
+    }
+
+    private class Rollout {
+        private final String jobID;
+        private final int jobs;
+
+        private final AtomicLong executions = new AtomicLong();
+        private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> reasons = new ConcurrentHashMap<>();
+
+        private final DurationHistogram queuedToInProgress = new DurationHistogram();
+        private final DurationHistogram inProgressToSucceeded = new DurationHistogram();
+        private final DurationHistogram queuedToSucceeded = new DurationHistogram();
+
+        private Rollout(final String jobID, final int jobs) {
+            this.jobID = jobID;
+            this.jobs = jobs;
+        }
+
+        private void record(final String jobID, final JobExecutionSummaryForJob summary, final Semaphore details,
+                            final ExecutorService describer) {
+            JobExecutionSummary execution = summary.getJobExecutionSummary();
+            String status = execution.getStatus();
+
+            this.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+
+            Date queuedAt = execution.getQueuedAt();
+            Date startedAt = execution.getStartedAt();
+            Date updatedAt = execution.getLastUpdatedAt();
+
+            if (queuedAt != null && startedAt != null)
+                this.queuedToInProgress.record(startedAt.getTime() - queuedAt.getTime());
+            if (JobExecutionStatus.SUCCEEDED.toString().equals(status) && updatedAt != null) {
+                if (startedAt != null)
+                    this.inProgressToSucceeded.record(updatedAt.getTime() - startedAt.getTime());
+                if (queuedAt != null)
+                    this.queuedToSucceeded.record(updatedAt.getTime() - queuedAt.getTime());
+            }
+
+            if (FAILED_STATUSES.contains(status))
+                this.describe(jobID, summary.getThingArn(), details, describer);
+
+            long scanned = this.executions.incrementAndGet();
+            if (scanned % PROGRESS_INTERVAL == 0)
+                log.info(String.format("%d executions of the job %s are scanned", scanned, this.jobID));
+        }
+
+        private void describe(final String jobID, final String thingArn, final Semaphore details,
+                              final ExecutorService describer) {
+            try {
+                details.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+
+            describer.execute(() -> {
+                // released once the reason is counted, the report waits for all permits before it prints
+                try {
+                    String reason;
+                    try {
+                        JobExecution execution = iot.describeJobExecution(
+                                jobID, thingArn.substring(thingArn.lastIndexOf('/') + 1));
+                        reason = reason(execution);
+                    } catch (RuntimeException e) {
+                        reason = String.format("(not described: %s)", e.getMessage());
+                    }
+
+                    String key = this.reasons.size() < MAX_DISTINCT_REASONS || this.reasons.containsKey(reason) ?
+                            reason : OTHER_REASONS;
+                    this.reasons.computeIfAbsent(key, k -> new LongAdder()).increment();
+                } finally {
+                    details.release();
+                }
+            });
+        }
+
+        private String reason(final JobExecution execution) {
+            Map<String, String> detailsMap = execution.getStatusDetails() == null ? null :
+                    execution.getStatusDetails().getDetailsMap();
+            if (detailsMap == null || detailsMap.isEmpty())
+                return String.format("%s, no details", execution.getStatus());
+
+            String reason = String.format("%s, %s", execution.getStatus(),
+                    new TreeMap<>(detailsMap).entrySet().stream()
+                            .map(e -> String.format("%s=%s", e.getKey(), e.getValue()))
+                            .collect(Collectors.joining(", ")));
+            return reason.length() > MAX_REASON_LENGTH ? reason.substring(0, MAX_REASON_LENGTH) + "..." : reason;
+        }
+
+        private void print(final int maxReasons) {
+            long total = this.executions.get();
+            System.out.println(String.format("\t%s (%d jobs, %d executions)", this.jobID, this.jobs, total));
+
+            long succeeded = this.count(JobExecutionStatus.SUCCEEDED.toString());
+            long failed = FAILED_STATUSES.stream().mapToLong(this::count).sum();
+            for (JobExecutionStatus status : JobExecutionStatus.values()) {
+                long count = this.count(status.toString());
+                if (count > 0)
+                    System.out.println(String.format("\t\t%-28s %8d %6.1f%%",
+                            status, count, 100.0 * count / total));
+            }
+
+            long finished = succeeded + failed;
+            if (finished > 0)
+                System.out.println(String.format("\t\tsuccess rate %.1f%%, failure rate %.1f%% of %d finished",
+                        100.0 * succeeded / finished, 100.0 * failed / finished, finished));
+
+            printDurations("queued to in progress", this.queuedToInProgress);
+            printDurations("in progress to succeeded", this.inProgressToSucceeded);
+            printDurations("queued to succeeded", this.queuedToSucceeded);
+
+            if (!this.reasons.isEmpty() && maxReasons > 0) {
+                System.out.println("\t\tfailure reasons:");
+                this.reasons.entrySet().stream()
+                        .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                        .limit(maxReasons)
+                        .forEach(e -> System.out.println(String.format(
+                                "\t\t\t%8d  %s", e.getValue().sum(), e.getKey())));
+            }
+        }
+
+        private long count(final String status) {
+            LongAdder count = this.statuses.get(status);
+            return count == null ? 0 : count.sum();
+        }
+
+        private void printDurations(final String name, final DurationHistogram histogram) {
+            if (histogram.getCount() == 0)
+                return;
+
+            System.out.println(String.format("\t\t%-28s p50 %.1fs, p90 %.1fs, p99 %.1fs, max %.1fs",
+                    name, histogram.percentile(50) / 1e3, histogram.percentile(90) / 1e3,
+                    histogram.percentile(99) / 1e3, histogram.getMax() / 1e3));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The jobs reported and how their executions are scanned.
+ *
+ * Parsed from the command options:
+ * <job-id>...                  the jobs, each one with its batches `<job-id>-<n>`, all demo jobs by default
+ * --scan-concurrency=<n>       the executions of the statuses and jobs listed concurrently, default 8
+ * --detail-concurrency=<n>     the failed executions described concurrently, default 8
+ * --max-reasons=<n>            the most frequent failure reasons listed, default 10
+ */
+public class JobReportConfig {
+    private final List<String> jobIDs;
+    private final int scanConcurrency;
+    private final int detailConcurrency;
+    private final int maxReasons;
+
+    public JobReportConfig(final List<String> jobIDs, final int scanConcurrency, final int detailConcurrency,
+                           final int maxReasons) {
+        if (scanConcurrency < 1)
+            throw new IllegalArgumentException(String.format("invalid scan concurrency %d", scanConcurrency));
+        if (detailConcurrency < 1)
+            throw new IllegalArgumentException(String.format("invalid detail concurrency %d", detailConcurrency));
+        if (maxReasons < 0)
+            throw new IllegalArgumentException(String.format("invalid failure reason count %d", maxReasons));
+
+        this.jobIDs = Collections.unmodifiableList(new ArrayList<>(jobIDs));
+        this.scanConcurrency = scanConcurrency;
+        this.detailConcurrency = detailConcurrency;
+        this.maxReasons = maxReasons;
+    }
+
+    public static JobReportConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--scan-concurrency", "--detail-concurrency", "--max-reasons")
+                .arguments(Integer.MAX_VALUE)
+                .parse(options);
+
+        return new JobReportConfig(
+                parsed.getArguments(),
+                parsed.getInt("--scan-concurrency", 8),
+                parsed.getInt("--detail-concurrency", 8),
+                parsed.getInt("--max-reasons", 10));
+    }
+
+    /**
+     * @return the jobs given, empty to report all demo jobs
+     */
+    public List<String> getJobIDs() {
+        return this.jobIDs;
+    }
+
+    public int getScanConcurrency() {
+        return this.scanConcurrency;
+    }
+
+    public int getDetailConcurrency() {
+        return this.detailConcurrency;
+    }
+
+    public int getMaxReasons() {
+        return this.maxReasons;
+    }
+}
@@ -0,0 +1,110 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How the application deployment and destroy jobs are created by the builder directly,
+ * instead of printing the `aws iot create-job` command line for the operator.
+ *
+ * Parsed from the command options:
+ * --create-job                       enable the mode, required by the other options
+ * --things=<name>[,<name>...]        target things, the thing of the demo stack by default
+ * --things-file=<path>               target things, one name per line
+ * --thing-groups=<name>[,<name>...]  target thing groups
+ * --max-per-minute=<n>               the maximum job executions started per minute
+ * --in-progress-timeout-minutes=<n>  the job execution fails if it is in progress longer than this
+ * --url-expires-seconds=<n>          how long the pre-signed URLs in the job document are valid, 60 to 3600
+ */
+public class JobRolloutConfig {
+    public final static long DEFAULT_URL_EXPIRES_SECONDS = 3600;
+
+    // the range of the pre-signed URL expiry IoT accepts
+    private final static long MIN_URL_EXPIRES_SECONDS = 60;
+    private final static long MAX_URL_EXPIRES_SECONDS = 3600;
+
+    private final List<String> thingNames;
+    private final List<String> thingGroupNames;
+    private final Integer maxPerMinute;
+    private final Long inProgressTimeoutMinutes;
+    private final long urlExpiresSeconds;
+
+    public JobRolloutConfig(final List<String> thingNames, final List<String> thingGroupNames,
+                            final Integer maxPerMinute, final Long inProgressTimeoutMinutes) {
+        this(thingNames, thingGroupNames, maxPerMinute, inProgressTimeoutMinutes, DEFAULT_URL_EXPIRES_SECONDS);
+    }
+
+    public JobRolloutConfig(final List<String> thingNames, final List<String> thingGroupNames,
+                            final Integer maxPerMinute, final Long inProgressTimeoutMinutes,
+                            final long urlExpiresSeconds) {
+        if (urlExpiresSeconds < MIN_URL_EXPIRES_SECONDS || urlExpiresSeconds > MAX_URL_EXPIRES_SECONDS)
+            throw new IllegalArgumentException(String.format(
+                    "invalid pre-signed URL expiry %d seconds, %d to %d allowed",
+                    urlExpiresSeconds, MIN_URL_EXPIRES_SECONDS, MAX_URL_EXPIRES_SECONDS));
+
+        this.thingNames = Collections.unmodifiableList(new ArrayList<>(thingNames));
+        this.thingGroupNames = Collections.unmodifiableList(new ArrayList<>(thingGroupNames));
+        this.maxPerMinute = maxPerMinute;
+        this.inProgressTimeoutMinutes = inProgressTimeoutMinutes;
+        this.urlExpiresSeconds = urlExpiresSeconds;
+    }
+
+    /**
+     * @return the config, or null if the options do not enable the mode
+     */
+    public static JobRolloutConfig parse(final List<String> options) throws IOException {
+        if (!options.contains("--create-job")) {
+            if (!options.isEmpty())
+                throw new IllegalArgumentException(String.format(
+                        "option %s is only valid with --create-job", options.get(0)));
+            return null;
+        }
+
+        CommandOptions parsed = new CommandOptions()
+                .value("--things", "--things-file", "--thing-groups", "--max-per-minute",
+                        "--in-progress-timeout-minutes", "--url-expires-seconds")
+                .flag("--create-job")
+                .parse(options);
+
+        List<String> thingNames = new ArrayList<>(parsed.getList("--things", Collections.emptyList()));
+        for (String path : parsed.getAll("--things-file")) {
+            for (String line : Files.readAllLines(Paths.get(path))) {
+                if (!line.trim().isEmpty())
+                    thingNames.add(line.trim());
+            }
+        }
+
+        return new JobRolloutConfig(
+                thingNames,
+                parsed.getList("--thing-groups", Collections.emptyList()),
+                parsed.getInt("--max-per-minute", null),
+                parsed.getLong("--in-progress-timeout-minutes", null),
+                parsed.getLong("--url-expires-seconds", DEFAULT_URL_EXPIRES_SECONDS));
+    }
+
+    public List<String> getThingNames() {
+        return this.thingNames;
+    }
+
+    public List<String> getThingGroupNames() {
+        return this.thingGroupNames;
+    }
+
+    public Integer getMaxPerMinute() {
+        return this.maxPerMinute;
+    }
+
+    public Long getInProgressTimeoutMinutes() {
+        return this.inProgressTimeoutMinutes;
+    }
+
+    public long getUrlExpiresSeconds() {
+        return this.urlExpiresSeconds;
+    }
+}
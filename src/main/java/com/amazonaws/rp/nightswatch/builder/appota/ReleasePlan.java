@@ -0,0 +1,218 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The steps of a release, each one is an `app-ota-demo` command with its options, e.g.:
+ * <pre>
+ * {
+ *   "max_parallel": 4,
+ *   "on_error": "fail-fast",
+ *   "steps": [
+ *     {"id": "asset", "command": "prepare-asset"},
+ *     {"id": "apps", "command": "prepare-apps", "options": ["--versions=v1"]},
+ *     {"id": "deploy-v1", "command": "prepare-app-v1", "options": ["--create-job"]},
+ *     {"id": "deploy-v2", "command": "prepare-app-v2", "options": ["--create-job"], "after": ["deploy-v1"]},
+ *     {"id": "teardown", "command": "cleanup-asset"}
+ *   ]
+ * }
+ * </pre>
+ *
+ * A step runs after the steps listed in `after`, and after the steps its command depends on:
+ * the application steps follow the `prepare-asset` steps, the `cleanup-asset` steps follow all the asset
+ * and application steps. The other steps run as soon as a worker is free.
+ *
+ * The `id` is the command by default, `max_parallel` is 4 and `on_error` is `fail-fast` or `continue`.
+ */
+public class ReleasePlan {
+    private final static ObjectMapper JSON = new ObjectMapper();
+
+    private final int maxParallel;
+    private final boolean continueOnError;
+    // in the order of the plan file
+    private final Map<String, Step> steps;
+    // each step after the steps it depends on
+    private final List<Step> order;
+
+    private ReleasePlan(final int maxParallel, final boolean continueOnError, final List<Step> steps) {
+        if (maxParallel < 1)
+            throw new IllegalArgumentException(String.format("invalid parallelism %d of the plan", maxParallel));
+        if (steps.isEmpty())
+            throw new IllegalArgumentException("no step in the plan");
+
+        Map<String, Step> byID = new LinkedHashMap<>();
+        for (Step step : steps) {
+            if (byID.put(step.id, step) != null)
+                throw new IllegalArgumentException(String.format("duplicate step %s in the plan", step.id));
+        }
+
+        for (Step step : steps) {
+            for (String dependency : step.after) {
+                if (!byID.containsKey(dependency))
+                    throw new IllegalArgumentException(String.format(
+                            "step %s runs after unknown step %s", step.id, dependency));
+            }
+        }
+
+        this.maxParallel = maxParallel;
+        this.continueOnError = continueOnError;
+        this.steps = Collections.unmodifiableMap(byID);
+        this.order = Collections.unmodifiableList(this.sort());
+    }
+
+    public static ReleasePlan load(final File planFile) throws IOException {
+        return parse(JSON.readTree(planFile), planFile.toString());
+    }
+
+    public static ReleasePlan parse(final String plan) throws IOException {
+        return parse(JSON.readTree(plan), "content");
+    }
+
+    private static ReleasePlan parse(final JsonNode root, final String source) {
+        if (root == null || !root.isObject())
+            throw new IllegalArgumentException(String.format("invalid release plan %s", source));
+
+        String onError = root.path("on_error").asText("fail-fast");
+        if (!"fail-fast".equals(onError) && !"continue".equals(onError))
+            throw new IllegalArgumentException(String.format("invalid on_error %s of the plan", onError));
+
+        List<Step> steps = new ArrayList<>();
+        for (JsonNode node : root.path("steps")) {
+            String command = node.path("command").asText("");
+            if (!AppOTADemoCommands.COMMANDS.contains(command) || "run-plan".equals(command))
+                throw new IllegalArgumentException(String.format("invalid command %s in the plan", command));
+
+            steps.add(new Step(node.path("id").asText(command), command,
+                    texts(node.path("options")), texts(node.path("after"))));
+        }
+
+        return new ReleasePlan(root.path("max_parallel").asInt(4), "continue".equals(onError), steps);
+    }
+
+    private static List<String> texts(final JsonNode node) {
+        List<String> texts = new ArrayList<>();
+        for (JsonNode item : node)
+            texts.add(item.asText());
+        return texts;
+    }
+
+    public int getMaxParallel() {
+        return this.maxParallel;
+    }
+
+    public boolean isContinueOnError() {
+        return this.continueOnError;
+    }
+
+    public Collection<Step> getSteps() {
+        return this.steps.values();
+    }
+
+    /**
+     * @return the steps in an order they can run one by one, each one after the steps it depends on
+     */
+    public List<Step> getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return the IDs of the steps the given one runs after, listed and implied
+     */
+    public Set<String> dependencies(final Step step) {
+        Set<String> dependencies = new LinkedHashSet<>(step.after);
+
+        int stage = stage(step.command);
+        for (Step other : this.steps.values()) {
+            int otherStage = stage(other.command);
+            if (otherStage >= 0 && otherStage < stage)
+                dependencies.add(other.id);
+        }
+
+        return dependencies;
+    }
+
+    // -1 for the commands with no implied order
+    private static int stage(final String command) {
+        if ("prepare-asset".equals(command))
+            return 0;
+        if (AppOTADemoCommands.isAppCommand(command))
+            return 1;
+        if ("cleanup-asset".equals(command))
+            return 2;
+        return -1;
+    }
+
+    // the ties in the order of the plan file
+    private List<Step> sort() {
+        Map<String, Integer> pending = new HashMap<>();
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Step step : this.steps.values()) {
+            Set<String> dependencies = this.dependencies(step);
+            pending.put(step.id, dependencies.size());
+            for (String dependency : dependencies)
+                dependents.computeIfAbsent(dependency, k -> new ArrayList<>()).add(step.id);
+        }
+
+        Deque<String> ready = new ArrayDeque<>();
+        for (Step step : this.steps.values()) {
+            if (pending.get(step.id) == 0)
+                ready.add(step.id);
+        }
+
+        List<Step> order = new ArrayList<>(this.steps.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            order.add(this.steps.get(id));
+            for (String dependent : dependents.getOrDefault(id, Collections.emptyList())) {
+                if (pending.merge(dependent, -1, Integer::sum) == 0)
+                    ready.add(dependent);
+            }
+        }
+
+        if (order.size() != this.steps.size())
+            throw new IllegalArgumentException("the steps of the plan depend on each other in a cycle");
+        return order;
+    }
+
+    public static class Step {
+        private final String id;
+        private final String command;
+        private final List<String> options;
+        private final List<String> after;
+
+        private Step(final String id, final String command, final List<String> options, final List<String> after) {
+            if (id.isEmpty())
+                throw new IllegalArgumentException("invalid empty step ID in the plan");
+
+            this.id = id;
+            this.command = command;
+            this.options = Collections.unmodifiableList(new ArrayList<>(options));
+            this.after = Collections.unmodifiableList(new ArrayList<>(after));
+        }
+
+        public String getId() {
+            return this.id;
+        }
+
+        public String getCommand() {
+            return this.command;
+        }
+
+        public List<String> getOptions() {
+            return this.options;
+        }
+
+        /**
+         * @return what the step does, a step done by a previous run is run again once it changes
+         */
+        public String signature() {
+            return this.options.isEmpty() ? this.command :
+                    String.format("%s %s", this.command, String.join(" ", this.options));
+        }
+    }
+}
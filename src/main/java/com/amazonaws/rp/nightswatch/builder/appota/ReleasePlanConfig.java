@@ -0,0 +1,92 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * How a release plan is run, the plan file sets the defaults of the concurrency and the error handling.
+ *
+ * Parsed from the command options:
+ * <plan-file>                 the plan in JSON, required
+ * --max-parallel=<n>          the steps run concurrently at most, overrides `max_parallel` of the plan
+ * --continue-on-error         keep running the steps not depending on a failed one, overrides `on_error`
+ * --fail-fast                 start no more steps once one failed, overrides `on_error`
+ * --state-file=<path>         default target/nightswatch-plan/<plan-file-name>.state.json
+ * --restart                   ignore the steps done by the previous runs
+ */
+public class ReleasePlanConfig {
+    private final File planFile;
+    private final File stateFile;
+    private final Integer maxParallel;
+    private final Boolean continueOnError;
+    private final boolean restart;
+
+    public ReleasePlanConfig(final File planFile, final File stateFile, final Integer maxParallel,
+                             final Boolean continueOnError, final boolean restart) {
+        if (planFile == null)
+            throw new IllegalArgumentException("the release plan file is not provided");
+        if (maxParallel != null && maxParallel < 1)
+            throw new IllegalArgumentException(String.format("invalid parallelism %d", maxParallel));
+
+        this.planFile = planFile;
+        this.stateFile = stateFile != null ? stateFile : new File(String.format(
+                "%s/target/nightswatch-plan/%s.state.json", System.getProperty("user.dir"), planFile.getName()));
+        this.maxParallel = maxParallel;
+        this.continueOnError = continueOnError;
+        this.restart = restart;
+    }
+
+    public static ReleasePlanConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--max-parallel", "--state-file")
+                .flag("--continue-on-error", "--fail-fast", "--restart")
+                .arguments(1)
+                .parse(options);
+
+        if (parsed.has("--continue-on-error") && parsed.has("--fail-fast"))
+            throw new IllegalArgumentException("option --continue-on-error conflicts with --fail-fast");
+
+        Boolean continueOnError = null;
+        if (parsed.has("--continue-on-error"))
+            continueOnError = true;
+        else if (parsed.has("--fail-fast"))
+            continueOnError = false;
+
+        String stateFile = parsed.get("--state-file", null);
+
+        return new ReleasePlanConfig(
+                parsed.getArguments().isEmpty() ? null : new File(parsed.getArguments().get(0)),
+                stateFile == null ? null : new File(stateFile),
+                parsed.getInt("--max-parallel", null),
+                continueOnError,
+                parsed.has("--restart"));
+    }
+
+    public File getPlanFile() {
+        return this.planFile;
+    }
+
+    public File getStateFile() {
+        return this.stateFile;
+    }
+
+    /**
+     * @return null to follow the plan
+     */
+    public Integer getMaxParallel() {
+        return this.maxParallel;
+    }
+
+    /**
+     * @return null to follow the plan
+     */
+    public Boolean getContinueOnError() {
+        return this.continueOnError;
+    }
+
+    public boolean isRestart() {
+        return this.restart;
+    }
+}
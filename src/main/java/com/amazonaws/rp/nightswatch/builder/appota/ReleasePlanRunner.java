@@ -0,0 +1,214 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the steps of a release plan in one process, each step as soon as the steps it depends on succeeded,
+ * with a bounded number of steps at a time.
+ *
+ * On a failure, the fail-fast plan starts no more steps, the others keep running the steps not depending on
+ * the failed one. The steps succeeded are recorded in the state file once each one is done, so a plan run
+ * again resumes from the steps not done, unless the step is changed or the run is restarted.
+ */
+public class ReleasePlanRunner {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-plan");
+
+    private final static ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private enum Status {
+        PENDING, RUNNING, SUCCEEDED, DONE_BEFORE, FAILED
+    }
+
+    private final AppOTADemoCommands commands;
+
+    public ReleasePlanRunner(final AppOTADemoCommands commands) {
+        this.commands = commands;
+    }
+
+    public void run(final ReleasePlanConfig config) throws IOException, InterruptedException {
+        ReleasePlan plan = ReleasePlan.load(config.getPlanFile());
+        int maxParallel = config.getMaxParallel() != null ? config.getMaxParallel() : plan.getMaxParallel();
+        boolean continueOnError = config.getContinueOnError() != null ?
+                config.getContinueOnError() : plan.isContinueOnError();
+
+        ObjectNode state = config.isRestart() ? JSON.createObjectNode() : this.loadState(config.getStateFile());
+        ObjectNode stepStates = state.with("steps");
+
+        Map<String, Status> statuses = new LinkedHashMap<>();
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        Map<String, Double> seconds = new HashMap<>();
+
+        for (ReleasePlan.Step step : plan.getSteps()) {
+            dependencies.put(step.getId(), plan.dependencies(step));
+
+            JsonNode recorded = stepStates.path(step.getId());
+            boolean done = "succeeded".equals(recorded.path("status").asText()) &&
+                    step.signature().equals(recorded.path("signature").asText());
+            statuses.put(step.getId(), done ? Status.DONE_BEFORE : Status.PENDING);
+            if (done)
+                log.info(String.format("step %s is done by a previous run, skipped", step.getId()));
+        }
+
+        log.info(String.format("running release plan %s, %d steps with %d at a time, %s",
+                config.getPlanFile(), statuses.size(), maxParallel, continueOnError ? "continue on error" : "fail-fast"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(maxParallel);
+        CompletionService<StepResult> completion = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        boolean stopping = false;
+
+        try {
+            while (true) {
+                if (!stopping) {
+                    for (ReleasePlan.Step step : plan.getOrder()) {
+                        if (statuses.get(step.getId()) != Status.PENDING ||
+                                !this.satisfied(dependencies.get(step.getId()), statuses))
+                            continue;
+
+                        statuses.put(step.getId(), Status.RUNNING);
+                        completion.submit(() -> this.runStep(step));
+                        running++;
+                    }
+                }
+
+                if (running == 0)
+                    break;
+
+                StepResult result = completion.take().get();
+                running--;
+
+                ReleasePlan.Step step = result.step;
+                seconds.put(step.getId(), result.seconds);
+                statuses.put(step.getId(), result.error == null ? Status.SUCCEEDED : Status.FAILED);
+
+                ObjectNode stepState = stepStates.putObject(step.getId());
+                stepState.put("signature", step.signature());
+                stepState.put("status", result.error == null ? "succeeded" : "failed");
+                stepState.put("finished", Instant.now().toString());
+                if (result.error != null) {
+                    stepState.put("error", result.error);
+                    if (!continueOnError && !stopping) {
+                        stopping = true;
+                        log.error(String.format("step %s failed, no more steps are started", step.getId()));
+                    }
+                }
+                this.saveState(config.getStateFile(), state);
+            }
+        } catch (ExecutionException e) {
+            // the step catches its failure on its own
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        this.printSummary(statuses, seconds);
+
+        long failed = statuses.values().stream().filter(s -> s == Status.FAILED).count();
+        long skipped = statuses.values().stream().filter(s -> s == Status.PENDING).count();
+        if (failed > 0 || skipped > 0)
+            throw new IllegalStateException(String.format(
+                    "%d steps of the plan failed and %d steps are not run, run the plan again to resume, " +
+                            "the state is saved at %s", failed, skipped, config.getStateFile()));
+    }
+
+    private boolean satisfied(final Set<String> dependencies, final Map<String, Status> statuses) {
+        for (String dependency : dependencies) {
+            Status status = statuses.get(dependency);
+            if (status != Status.SUCCEEDED && status != Status.DONE_BEFORE)
+                return false;
+        }
+        return true;
+    }
+
+    private StepResult runStep(final ReleasePlan.Step step) {
+        log.info(String.format("step %s started: %s", step.getId(), step.signature()));
+        long start = System.nanoTime();
+
+        String error = null;
+        try {
+            if (!this.commands.run(step.getCommand(), step.getOptions()))
+                throw new IllegalArgumentException(String.format("invalid options of command %s", step.getCommand()));
+        } catch (Exception e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            log.error(String.format("step %s failed: %s", step.getId(), error));
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (error == null)
+            log.info(String.format("step %s succeeded in %.1f seconds", step.getId(), seconds));
+
+        return new StepResult(step, error, seconds);
+    }
+
+    private ObjectNode loadState(final File stateFile) throws IOException {
+        if (!stateFile.exists())
+            return JSON.createObjectNode();
+
+        JsonNode state = JSON.readTree(stateFile);
+        if (state == null || !state.isObject())
+            throw new IOException(String.format("invalid release plan state file %s", stateFile));
+
+        log.info(String.format("resuming release plan from state file %s", stateFile));
+        return (ObjectNode) state;
+    }
+
+    private void saveState(final File stateFile, final ObjectNode state) throws IOException {
+        File dir = stateFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException(String.format("failed to create the release plan state directory at %s", dir));
+
+        // replaced as a whole, an interrupted run never leaves a partial state
+        File tmpFile = new File(dir, stateFile.getName() + ".tmp");
+        JSON.writeValue(tmpFile, state);
+        Files.move(tmpFile.toPath(), stateFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void printSummary(final Map<String, Status> statuses, final Map<String, Double> seconds) {
+        System.out.println();
+        System.out.println("Outputs:");
+        System.out.println("release plan steps:");
+        for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+            String status;
+            switch (entry.getValue()) {
+                case SUCCEEDED:
+                    status = String.format("succeeded in %.1f seconds", seconds.get(entry.getKey()));
+                    break;
+                case DONE_BEFORE:
+                    status = "done by a previous run";
+                    break;
+                case FAILED:
+                    status = String.format("failed in %.1f seconds", seconds.get(entry.getKey()));
+                    break;
+                default:
+                    status = "not run";
+            }
+            System.out.println(String.format("\t%-32s %s", entry.getKey(), status));
+        }
+    }
+
+    private static class StepResult {
+        private final ReleasePlan.Step step;
+        private final String error;
+        private final double seconds;
+
+        private StepResult(final ReleasePlan.Step step, final String error, final double seconds) {
+            this.step = step;
+            this.error = error;
+            this.seconds = seconds;
+        }
+    }
+}
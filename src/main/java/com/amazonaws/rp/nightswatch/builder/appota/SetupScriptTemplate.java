@@ -0,0 +1,74 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The setup script template of the IoT device, loaded from the jar once and rendered with the pre-signed URLs,
+ * SHA-256 digests and sizes of the device files, the script fetches them in ranges and verifies them.
+ */
+public class SetupScriptTemplate {
+    private final static String RESOURCE_NAME =
+            String.format("nw-app-ota-demo/%s", AppOTADemoDeviceStack.SETUP_SCRIPT_FILE_NAME);
+
+    private static volatile SetupScriptTemplate instance;
+
+    private final String template;
+
+    private SetupScriptTemplate(final String template) {
+        this.template = template;
+    }
+
+    public static SetupScriptTemplate load() {
+        SetupScriptTemplate template = instance;
+        if (template == null) {
+            URL scriptSrc = SetupScriptTemplate.class.getClassLoader().getResource(RESOURCE_NAME);
+            if (scriptSrc == null)
+                throw new IllegalArgumentException(
+                        String.format("setup script file %s not found", RESOURCE_NAME));
+
+            try (InputStream in = scriptSrc.openStream()) {
+                template = new SetupScriptTemplate(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // loaded twice at worst, the content is the same
+            instance = template;
+        }
+        return template;
+    }
+
+    public String render(final Asset credentialsPackage, final Asset rangerPackage) {
+        return this.template
+                .replace("<CREDENTIALS_PACKAGE_URL>", credentialsPackage.url)
+                .replace("<CREDENTIALS_PACKAGE_SHA256>", credentialsPackage.sha256Hex)
+                .replace("<CREDENTIALS_PACKAGE_SIZE>", Long.toString(credentialsPackage.size))
+                .replace("<NW_RANGER_PACKAGE_URL>", rangerPackage.url)
+                .replace("<NW_RANGER_PACKAGE_SHA256>", rangerPackage.sha256Hex)
+                .replace("<NW_RANGER_PACKAGE_SIZE>", Long.toString(rangerPackage.size));
+    }
+
+    /**
+     * A device file the script fetches.
+     */
+    public static class Asset {
+        private final String url;
+        private final String sha256Hex;
+        private final long size;
+
+        public Asset(final String url, final String sha256Hex, final long size) {
+            if (sha256Hex == null || !sha256Hex.matches("[0-9a-f]{64}"))
+                throw new IllegalArgumentException(String.format("invalid SHA-256 digest %s of %s", sha256Hex, url));
+            if (size < 0)
+                throw new IllegalArgumentException(String.format("invalid size %d of %s", size, url));
+
+            this.url = url;
+            this.sha256Hex = sha256Hex;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.rp.nightswatch.builder.appota.AppOTADemoApplication;
+import com.amazonaws.rp.nightswatch.builder.appota.JobDocTemplate;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Rolls the application job documents out to a fleet of simulated Ranger devices in this process, to
+ * load-test the documents and the rollout settings before they reach the real devices.
+ *
+ * The devices and the IoT Jobs service talk over the local broker, no AWS service is involved.
+ */
+public class FleetSimulator {
+    private final Logger log = LoggerFactory.getLogger("nightswatch-app-ota-demo-simulator");
+
+    public void run(final FleetSimulatorConfig config) throws IOException, InterruptedException {
+        Map<String, byte[]> jobDocs = this.loadJobDocs(config);
+        Map<String, String> tarMd5s = this.bundledTarMd5s(config.getContainerFlag());
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(config.getThreads());
+        LocalBroker broker = new LocalBroker(config.getThreads());
+        boolean completed;
+
+        try {
+            SimulatedJobsService service = new SimulatedJobsService(broker, scheduler);
+
+            VirtualRanger.Profile profile = new VirtualRanger.Profile(
+                    config.getWorkMillis(), config.getFailureRate(), tarMd5s);
+            List<String> thingNames = new ArrayList<>(config.getDevices());
+            for (int i = 0; i < config.getDevices(); i++) {
+                String thingName = String.format("nw-sim-dev-%06d", i);
+                thingNames.add(thingName);
+                new VirtualRanger(thingName, broker, scheduler, profile).connect();
+            }
+
+            log.info(String.format("%d simulated devices are connected, rolling out %d jobs ...",
+                    config.getDevices(), jobDocs.size()));
+
+            for (Map.Entry<String, byte[]> jobDoc : jobDocs.entrySet())
+                service.createJob(jobDoc.getKey(), jobDoc.getValue(), thingNames, config.getMaxPerMinute(),
+                        config.getInProgressTimeoutMinutes() == null ? null :
+                                Duration.ofMinutes(config.getInProgressTimeoutMinutes()));
+
+            completed = service.awaitJobs(config.getTimeoutMinutes(), TimeUnit.MINUTES);
+            if (!completed)
+                log.warn(String.format("the rollout is not completed in %d minutes", config.getTimeoutMinutes()));
+
+            this.printSummary(config, broker, service.getJobStats());
+        } finally {
+            scheduler.shutdownNow();
+            broker.shutdown();
+        }
+
+        if (!completed)
+            throw new IllegalStateException("the simulated rollout is not completed in time");
+    }
+
+    /**
+     * @return job ID -> job document, in the order the jobs are rolled out
+     */
+    private Map<String, byte[]> loadJobDocs(final FleetSimulatorConfig config) throws IOException {
+        Map<String, byte[]> jobDocs = new LinkedHashMap<>();
+
+        if (!config.getJobDocs().isEmpty()) {
+            for (File file : config.getJobDocs())
+                jobDocs.put(file.getName().replaceFirst("\\.json$", ""), Files.readAllBytes(file.toPath()));
+            return jobDocs;
+        }
+
+        // the template as is, the device does not download the package
+        JobDocTemplate.Params params = new JobDocTemplate.Params(null, null, null, null, null);
+        List<String> versions = config.getVersions();
+        for (String version : versions) {
+            jobDocs.put(String.format("%sdeploy-app-%s", AppOTADemoApplication.JOB_ID_PREFIX, version),
+                    JobDocTemplate.load(String.format("nw-app-ota-demo/app_x64_%s_%s/deploy_app_xxx_pkg.json",
+                            config.getContainerFlag(), version)).render(params));
+        }
+        if (config.isDestroy()) {
+            String version = versions.get(versions.size() - 1);
+            jobDocs.put(String.format("%sdestroy-app-%s", AppOTADemoApplication.JOB_ID_PREFIX, version),
+                    JobDocTemplate.load(String.format("nw-app-ota-demo/app_x64_%s_%s/destroy_app_xxx_pkg.json",
+                            config.getContainerFlag(), version)).render(params));
+        }
+
+        return jobDocs;
+    }
+
+    /**
+     * @return package MD5 -> tar ball MD5 of the bundled packages, what a device finds after the download
+     */
+    private Map<String, String> bundledTarMd5s(final String containerFlag) throws IOException {
+        Map<String, String> tarMd5s = new HashMap<>();
+
+        for (String version : Arrays.asList("v1", "v2")) {
+            URL pkg = getClass().getClassLoader().getResource(String.format(
+                    "nw-app-ota-demo/app_x64_%s_%s/app_xxx_pkg.tar.gz", containerFlag, version));
+            if (pkg == null)
+                continue;
+
+            MessageDigest pkgDigest = md5();
+            MessageDigest tarDigest = md5();
+            try (InputStream in = new DigestInputStream(new GZIPInputStream(
+                    new DigestInputStream(pkg.openStream(), pkgDigest)), tarDigest)) {
+                IOUtils.copy(in, NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+            tarMd5s.put(Hex.encodeHexString(pkgDigest.digest()), Hex.encodeHexString(tarDigest.digest()));
+        }
+
+        return tarMd5s;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void printSummary(final FleetSimulatorConfig config, final LocalBroker broker,
+                              final List<JobStats> jobs) {
+        System.out.println();
+        System.out.println("Outputs:");
+        System.out.println(String.format("simulated fleet:\n\t%d devices, %d messages published, %d delivered",
+                config.getDevices(), broker.getPublished(), broker.getDelivered()));
+        System.out.println(String.format("%-40s %8s %8s %8s %9s %9s %18s %18s %24s",
+                "job", "targets", "succeed", "failed", "timed out", "exec/s",
+                "queued p50/p99 ms", "running p50/p99 ms", "total p50/p90/p99 ms"));
+
+        for (JobStats job : jobs) {
+            System.out.println(String.format("%-40s %8d %8d %8d %9d %9.1f %18s %18s %24s",
+                    job.getJobId(), job.getTargets(), job.count("SUCCEEDED"), job.count("FAILED"),
+                    job.count("TIMED_OUT"), job.throughput(),
+                    String.format("%.0f/%.0f", job.queuePercentileMillis(50), job.queuePercentileMillis(99)),
+                    String.format("%.0f/%.0f", job.runPercentileMillis(50), job.runPercentileMillis(99)),
+                    String.format("%.0f/%.0f/%.0f", job.totalPercentileMillis(50),
+                            job.totalPercentileMillis(90), job.totalPercentileMillis(99))));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.rp.nightswatch.builder.utils.CommandOptions;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The simulated fleet, the jobs rolled out to it and the rollout settings.
+ *
+ * Parsed from the command options:
+ * --devices=<n>                      the simulated devices, default 1000
+ * --flavor=<flag>                    containerized or native, default containerized
+ * --versions=<version>[,<version>...] the bundled deployment job documents rolled out in order, default v1,v2
+ * --destroy                          roll out the destroy job document of the last version at the end
+ * --job-docs=<path>[,<path>...]      the job documents prepared by `prepare-app*` instead of the bundled ones
+ * --max-per-minute=<n>               the maximum job executions started per minute
+ * --in-progress-timeout-minutes=<n>  the job execution fails if it is in progress longer than this
+ * --work-ms=<n>                      the time a device takes to deploy a package, default 500
+ * --failure-rate=<r>                 the ratio of the executions failed by the device, default 0
+ * --threads=<n>                      the broker and scheduler threads, default the processor count
+ * --timeout-minutes=<n>              stop waiting for the rollout after, default 30
+ */
+public class FleetSimulatorConfig {
+    private final int devices;
+    private final String containerFlag;
+    private final List<String> versions;
+    private final boolean destroy;
+    private final List<File> jobDocs;
+    private final Integer maxPerMinute;
+    private final Long inProgressTimeoutMinutes;
+    private final long workMillis;
+    private final double failureRate;
+    private final int threads;
+    private final long timeoutMinutes;
+
+    public FleetSimulatorConfig(final int devices, final String containerFlag, final List<String> versions,
+                                final boolean destroy, final List<File> jobDocs, final Integer maxPerMinute,
+                                final Long inProgressTimeoutMinutes, final long workMillis,
+                                final double failureRate, final int threads, final long timeoutMinutes) {
+        if (devices < 1)
+            throw new IllegalArgumentException(String.format("invalid device count %d", devices));
+        if (!"containerized".equals(containerFlag) && !"native".equals(containerFlag))
+            throw new IllegalArgumentException(String.format("invalid application flavor %s", containerFlag));
+        if (versions.isEmpty() && jobDocs.isEmpty())
+            throw new IllegalArgumentException("no job document to roll out");
+        if (maxPerMinute != null && maxPerMinute < 1)
+            throw new IllegalArgumentException(String.format("invalid max per minute %d", maxPerMinute));
+        if (inProgressTimeoutMinutes != null && inProgressTimeoutMinutes < 1)
+            throw new IllegalArgumentException(String.format(
+                    "invalid in progress timeout %d minutes", inProgressTimeoutMinutes));
+        if (workMillis < 0)
+            throw new IllegalArgumentException(String.format("invalid work time %d ms", workMillis));
+        if (failureRate < 0 || failureRate > 1)
+            throw new IllegalArgumentException(String.format("invalid failure rate %s", failureRate));
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid thread count %d", threads));
+        if (timeoutMinutes < 1)
+            throw new IllegalArgumentException(String.format("invalid timeout %d minutes", timeoutMinutes));
+
+        this.devices = devices;
+        this.containerFlag = containerFlag;
+        this.versions = Collections.unmodifiableList(new ArrayList<>(versions));
+        this.destroy = destroy;
+        this.jobDocs = Collections.unmodifiableList(new ArrayList<>(jobDocs));
+        this.maxPerMinute = maxPerMinute;
+        this.inProgressTimeoutMinutes = inProgressTimeoutMinutes;
+        this.workMillis = workMillis;
+        this.failureRate = failureRate;
+        this.threads = threads;
+        this.timeoutMinutes = timeoutMinutes;
+    }
+
+    public static FleetSimulatorConfig parse(final List<String> options) {
+        CommandOptions parsed = new CommandOptions()
+                .value("--devices", "--flavor", "--versions", "--job-docs", "--max-per-minute",
+                        "--in-progress-timeout-minutes", "--work-ms", "--failure-rate", "--threads",
+                        "--timeout-minutes")
+                .flag("--destroy")
+                .parse(options);
+
+        List<File> jobDocs = new ArrayList<>();
+        for (String path : parsed.getList("--job-docs", Collections.emptyList()))
+            jobDocs.add(new File(path));
+
+        return new FleetSimulatorConfig(
+                parsed.getInt("--devices", 1000),
+                parsed.get("--flavor", "containerized"),
+                parsed.getList("--versions", Arrays.asList("v1", "v2")),
+                parsed.has("--destroy"),
+                jobDocs,
+                parsed.getInt("--max-per-minute", null),
+                parsed.getLong("--in-progress-timeout-minutes", null),
+                parsed.getLong("--work-ms", 500L),
+                parsed.getDouble("--failure-rate", 0.0),
+                parsed.getInt("--threads", Runtime.getRuntime().availableProcessors()),
+                parsed.getLong("--timeout-minutes", 30L));
+    }
+
+    public int getDevices() {
+        return this.devices;
+    }
+
+    public String getContainerFlag() {
+        return this.containerFlag;
+    }
+
+    public List<String> getVersions() {
+        return this.versions;
+    }
+
+    public boolean isDestroy() {
+        return this.destroy;
+    }
+
+    /**
+     * @return the prepared job documents, empty to roll out the bundled ones
+     */
+    public List<File> getJobDocs() {
+        return this.jobDocs;
+    }
+
+    public Integer getMaxPerMinute() {
+        return this.maxPerMinute;
+    }
+
+    public Long getInProgressTimeoutMinutes() {
+        return this.inProgressTimeoutMinutes;
+    }
+
+    public long getWorkMillis() {
+        return this.workMillis;
+    }
+
+    public double getFailureRate() {
+        return this.failureRate;
+    }
+
+    public int getThreads() {
+        return this.threads;
+    }
+
+    public long getTimeoutMinutes() {
+        return this.timeoutMinutes;
+    }
+}
@@ -0,0 +1,110 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of the executions of one simulated job: the count of each terminal status, the throughput,
+ * and the latency from queued to in progress, from in progress to done and from queued to done.
+ */
+public class JobStats {
+    private final String jobId;
+    private final int targets;
+    private final CountDownLatch done;
+
+    private final Map<String, Integer> statuses = new TreeMap<>();
+    private final long[] queueNanos;
+    private final long[] runNanos;
+    private final long[] totalNanos;
+    private int finished = 0;
+    private long firstQueuedNanos = Long.MAX_VALUE;
+    private long lastFinishedNanos = Long.MIN_VALUE;
+
+    JobStats(final String jobId, final int targets) {
+        this.jobId = jobId;
+        this.targets = targets;
+        this.done = new CountDownLatch(targets);
+
+        this.queueNanos = new long[targets];
+        this.runNanos = new long[targets];
+        this.totalNanos = new long[targets];
+    }
+
+    synchronized void record(final String status, final long queuedNanos, final long startedNanos,
+                             final long finishedNanos) {
+        this.statuses.merge(status, 1, Integer::sum);
+
+        this.queueNanos[this.finished] = startedNanos - queuedNanos;
+        this.runNanos[this.finished] = finishedNanos - startedNanos;
+        this.totalNanos[this.finished] = finishedNanos - queuedNanos;
+        this.finished++;
+
+        this.firstQueuedNanos = Math.min(this.firstQueuedNanos, queuedNanos);
+        this.lastFinishedNanos = Math.max(this.lastFinishedNanos, finishedNanos);
+
+        this.done.countDown();
+    }
+
+    boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return this.done.await(timeout, unit);
+    }
+
+    public String getJobId() {
+        return this.jobId;
+    }
+
+    public int getTargets() {
+        return this.targets;
+    }
+
+    public synchronized int getFinished() {
+        return this.finished;
+    }
+
+    public synchronized int count(final String status) {
+        return this.statuses.getOrDefault(status, 0);
+    }
+
+    public synchronized Map<String, Integer> getStatuses() {
+        return new TreeMap<>(this.statuses);
+    }
+
+    /**
+     * @return the executions finished per second from the first one queued to the last one finished
+     */
+    public synchronized double throughput() {
+        if (this.finished == 0)
+            return 0;
+        return this.finished / Math.max(1e-9, (this.lastFinishedNanos - this.firstQueuedNanos) / 1e9);
+    }
+
+    public synchronized double durationSeconds() {
+        return this.finished == 0 ? 0 : (this.lastFinishedNanos - this.firstQueuedNanos) / 1e9;
+    }
+
+    public synchronized double queuePercentileMillis(final int percentile) {
+        return percentile(this.queueNanos, percentile);
+    }
+
+    public synchronized double runPercentileMillis(final int percentile) {
+        return percentile(this.runNanos, percentile);
+    }
+
+    public synchronized double totalPercentileMillis(final int percentile) {
+        return percentile(this.totalNanos, percentile);
+    }
+
+    // nearest rank
+    private double percentile(final long[] nanos, final int percentile) {
+        if (this.finished == 0)
+            return 0;
+
+        long[] sorted = Arrays.copyOf(nanos, this.finished);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,117 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * An in-JVM stand-in of the MQTT broker of AWS IoT Core, enough to drive the IoT Jobs topics of many
+ * simulated devices: at most once delivery, the `+` and `#` wildcards of the topic filters, and the messages
+ * to one client delivered in the order they are published.
+ *
+ * The subscriptions are kept in a tree of the topic levels, so a message is matched against the filters
+ * sharing its levels only instead of all the filters of the fleet. Each client is served by one of the
+ * delivery lanes, a client handler never runs concurrently with itself.
+ */
+public class LocalBroker {
+    private final TopicNode root = new TopicNode();
+    private final ExecutorService[] lanes;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    public LocalBroker(final int laneCount) {
+        if (laneCount < 1)
+            throw new IllegalArgumentException(String.format("invalid delivery lane count %d", laneCount));
+
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++)
+            this.lanes[i] = Executors.newSingleThreadExecutor();
+    }
+
+    public void subscribe(final String clientId, final String topicFilter, final Consumer<AWSIotMessage> handler) {
+        TopicNode node = this.root;
+        for (String level : topicFilter.split("/", -1))
+            node = node.children.computeIfAbsent(level, l -> new TopicNode());
+
+        node.subscribers.add(new Subscriber(this.lanes[Math.floorMod(clientId.hashCode(), this.lanes.length)],
+                handler));
+    }
+
+    public void publish(final AWSIotMessage message) {
+        this.published.incrementAndGet();
+
+        List<Subscriber> subscribers = new ArrayList<>();
+        match(this.root, message.getTopic().split("/", -1), 0, subscribers);
+
+        for (Subscriber subscriber : subscribers) {
+            subscriber.lane.execute(() -> {
+                this.delivered.incrementAndGet();
+                subscriber.handler.accept(message);
+            });
+        }
+    }
+
+    private static void match(final TopicNode node, final String[] levels, final int idx,
+                              final List<Subscriber> subscribers) {
+        // `#` matches the parent level as well as any number of levels below
+        TopicNode multiLevel = node.children.get("#");
+        if (multiLevel != null)
+            subscribers.addAll(multiLevel.subscribers);
+
+        if (idx == levels.length) {
+            subscribers.addAll(node.subscribers);
+            return;
+        }
+
+        TopicNode exact = node.children.get(levels[idx]);
+        if (exact != null)
+            match(exact, levels, idx + 1, subscribers);
+
+        TopicNode singleLevel = node.children.get("+");
+        if (singleLevel != null)
+            match(singleLevel, levels, idx + 1, subscribers);
+    }
+
+    public long getPublished() {
+        return this.published.get();
+    }
+
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    /**
+     * Stops the delivery lanes, the messages queued are delivered in 10 seconds at most.
+     */
+    public void shutdown() throws InterruptedException {
+        for (ExecutorService lane : this.lanes)
+            lane.shutdown();
+        for (ExecutorService lane : this.lanes)
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private static class TopicNode {
+        private final Map<String, TopicNode> children = new ConcurrentHashMap<>();
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    }
+
+    private static class Subscriber {
+        private final ExecutorService lane;
+        private final Consumer<AWSIotMessage> handler;
+
+        private Subscriber(final ExecutorService lane, final Consumer<AWSIotMessage> handler) {
+            this.lane = lane;
+            this.handler = handler;
+        }
+    }
+}
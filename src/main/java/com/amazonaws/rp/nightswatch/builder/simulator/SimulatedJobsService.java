@@ -0,0 +1,267 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cloud side of the IoT Jobs MQTT API over the local broker, the part the Ranger daemon talks to:
+ * <pre>
+ * $aws/things/<thing>/jobs/notify-next                     service -> device, the next execution changed
+ * $aws/things/<thing>/jobs/start-next[/accepted|/rejected]  device -> service, start the next execution
+ * $aws/things/<thing>/jobs/<job>/update[/accepted|/rejected] device -> service, report the status
+ * </pre>
+ *
+ * The executions of a thing run one at a time in the order the jobs are created. The rollout rate limits
+ * how many executions are created per minute, the in-progress timeout fails an execution the device does
+ * not finish in time, as the job execution settings of `create-job` do.
+ */
+public class SimulatedJobsService {
+    private final static ObjectMapper JSON = new ObjectMapper();
+    private final static String CLIENT_ID = "nightswatch-simulated-jobs-service";
+    // the rollout releases the executions in ticks, finer than the per-minute rate
+    private final static long ROLLOUT_TICK_MILLIS = 100;
+
+    private final LocalBroker broker;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, ThingQueue> things = new ConcurrentHashMap<>();
+    private final Map<String, JobStats> jobs = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public SimulatedJobsService(final LocalBroker broker, final ScheduledExecutorService scheduler) {
+        this.broker = broker;
+        this.scheduler = scheduler;
+
+        broker.subscribe(CLIENT_ID, "$aws/things/+/jobs/start-next", this::onStartNext);
+        broker.subscribe(CLIENT_ID, "$aws/things/+/jobs/+/update", this::onUpdate);
+    }
+
+    /**
+     * @param maxPerMinute      null to create all executions at once
+     * @param inProgressTimeout null for no timeout
+     */
+    public void createJob(final String jobId, final byte[] document, final List<String> thingNames,
+                          final Integer maxPerMinute, final Duration inProgressTimeout) throws IOException {
+        JsonNode jobDocument = JSON.readTree(document);
+        JobStats stats = new JobStats(jobId, thingNames.size());
+        if (this.jobs.putIfAbsent(jobId, stats) != null)
+            throw new IllegalArgumentException(String.format("job %s exists", jobId));
+
+        Long timeoutMillis = inProgressTimeout == null ? null : inProgressTimeout.toMillis();
+
+        Deque<String> targets = new ArrayDeque<>(thingNames);
+        if (maxPerMinute == null) {
+            for (String thingName : targets)
+                this.queue(new Execution(stats, jobDocument, thingName, timeoutMillis));
+            return;
+        }
+
+        Rollout rollout = new Rollout(stats, jobDocument, targets, timeoutMillis, maxPerMinute);
+        rollout.start(this.scheduler.scheduleAtFixedRate(rollout, 0, ROLLOUT_TICK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    public boolean awaitJobs(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (JobStats stats : this.getJobStats()) {
+            if (!stats.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                return false;
+        }
+        return true;
+    }
+
+    public List<JobStats> getJobStats() {
+        synchronized (this.jobs) {
+            return new ArrayList<>(this.jobs.values());
+        }
+    }
+
+    private void queue(final Execution execution) {
+        ThingQueue thing = this.things.computeIfAbsent(execution.thingName, ThingQueue::new);
+
+        boolean notify;
+        synchronized (thing) {
+            execution.queuedNanos = System.nanoTime();
+            thing.pending.add(execution);
+            notify = thing.current == null && thing.pending.size() == 1;
+        }
+
+        if (notify)
+            this.publish(thing.name, "notify-next", this.executionMessage(execution, "QUEUED"));
+    }
+
+    private void onStartNext(final AWSIotMessage message) {
+        String thingName = message.getTopic().split("/")[2];
+        ThingQueue thing = this.things.computeIfAbsent(thingName, ThingQueue::new);
+
+        Execution execution;
+        synchronized (thing) {
+            if (thing.current == null && !thing.pending.isEmpty()) {
+                thing.current = thing.pending.poll();
+                thing.current.startedNanos = System.nanoTime();
+                this.scheduleTimeout(thing, thing.current);
+            }
+            execution = thing.current;
+        }
+
+        // no pending execution is accepted with no execution as IoT does
+        this.publish(thingName, "start-next/accepted", execution == null ? JSON.createObjectNode() :
+                this.executionMessage(execution, "IN_PROGRESS"));
+    }
+
+    private void onUpdate(final AWSIotMessage message) {
+        String[] levels = message.getTopic().split("/");
+        String thingName = levels[2];
+        String jobId = levels[4];
+        ThingQueue thing = this.things.computeIfAbsent(thingName, ThingQueue::new);
+
+        String status;
+        try {
+            status = JSON.readTree(message.getPayload()).path("status").asText();
+        } catch (IOException e) {
+            status = "";
+        }
+
+        Execution finished = null;
+        Execution next = null;
+        synchronized (thing) {
+            if (thing.current != null && thing.current.stats.getJobId().equals(jobId) &&
+                    ("SUCCEEDED".equals(status) || "FAILED".equals(status) || "REJECTED".equals(status))) {
+                finished = thing.current;
+                thing.current = null;
+                next = thing.pending.peek();
+            }
+        }
+
+        if (finished == null) {
+            // e.g. timed out already, or an unknown status
+            ObjectNode rejected = JSON.createObjectNode();
+            rejected.put("code", "InvalidStateTransition");
+            this.publish(thingName, String.format("%s/update/rejected", jobId), rejected);
+            return;
+        }
+
+        finished.finish(status);
+        this.publish(thingName, String.format("%s/update/accepted", jobId), JSON.createObjectNode());
+        if (next != null)
+            this.publish(thingName, "notify-next", this.executionMessage(next, "QUEUED"));
+    }
+
+    private void scheduleTimeout(final ThingQueue thing, final Execution execution) {
+        if (execution.timeoutMillis == null)
+            return;
+
+        this.scheduler.schedule(() -> {
+            Execution next;
+            synchronized (thing) {
+                if (thing.current != execution)
+                    return;
+                thing.current = null;
+                next = thing.pending.peek();
+            }
+
+            execution.finish("TIMED_OUT");
+            if (next != null)
+                this.publish(thing.name, "notify-next", this.executionMessage(next, "QUEUED"));
+        }, execution.timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private ObjectNode executionMessage(final Execution execution, final String status) {
+        ObjectNode message = JSON.createObjectNode();
+        ObjectNode node = message.putObject("execution");
+        node.put("jobId", execution.stats.getJobId());
+        node.put("thingName", execution.thingName);
+        node.put("status", status);
+        node.set("jobDocument", execution.jobDocument);
+        return message;
+    }
+
+    private void publish(final String thingName, final String suffix, final JsonNode payload) {
+        try {
+            this.broker.publish(new AWSIotMessage(String.format("$aws/things/%s/jobs/%s", thingName, suffix),
+                    AWSIotQos.QOS1, JSON.writeValueAsBytes(payload)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates the executions of a job at the rate, refilled each tick, the first one is created at once.
+     */
+    private class Rollout implements Runnable {
+        private final JobStats stats;
+        private final JsonNode jobDocument;
+        private final Deque<String> targets;
+        private final Long timeoutMillis;
+        private final double perTick;
+
+        private double allowance;
+        private ScheduledFuture<?> future;
+
+        private Rollout(final JobStats stats, final JsonNode jobDocument, final Deque<String> targets,
+                        final Long timeoutMillis, final int maxPerMinute) {
+            this.stats = stats;
+            this.jobDocument = jobDocument;
+            this.targets = targets;
+            this.timeoutMillis = timeoutMillis;
+            this.perTick = maxPerMinute * ROLLOUT_TICK_MILLIS / 60000.0;
+            this.allowance = Math.max(1, this.perTick) - this.perTick;
+        }
+
+        private synchronized void start(final ScheduledFuture<?> future) {
+            this.future = future;
+            if (this.targets.isEmpty())
+                future.cancel(false);
+        }
+
+        @Override
+        public synchronized void run() {
+            for (this.allowance += this.perTick; this.allowance >= 1 && !this.targets.isEmpty(); this.allowance--)
+                queue(new Execution(this.stats, this.jobDocument, this.targets.poll(), this.timeoutMillis));
+
+            if (this.targets.isEmpty() && this.future != null)
+                this.future.cancel(false);
+        }
+    }
+
+    private static class ThingQueue {
+        private final String name;
+        private final Deque<Execution> pending = new ArrayDeque<>();
+        private Execution current;
+
+        private ThingQueue(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Execution {
+        private final JobStats stats;
+        private final JsonNode jobDocument;
+        private final String thingName;
+        private final Long timeoutMillis;
+
+        private long queuedNanos;
+        private long startedNanos;
+
+        private Execution(final JobStats stats, final JsonNode jobDocument, final String thingName,
+                          final Long timeoutMillis) {
+            this.stats = stats;
+            this.jobDocument = jobDocument;
+            this.thingName = thingName;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        private void finish(final String status) {
+            this.stats.record(status, this.queuedNanos, this.startedNanos, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A simulated Night's Watch - Ranger daemon, it follows the IoT Jobs topics of its thing, checks the job
+ * documents as the daemon does and reports the execution status back, without a thread of its own: the
+ * broker delivers its messages and the scheduler completes its work.
+ *
+ * The package download and installation take the work time, a patch a quarter of it when the device has
+ * the base installed, otherwise the full package is installed.
+ */
+public class VirtualRanger {
+    private final static ObjectMapper JSON = new ObjectMapper();
+    private final static Pattern MD5 = Pattern.compile("[0-9a-f]{32}");
+
+    private final static double PATCH_WORK_FACTOR = 0.25;
+    private final static double DESTROY_WORK_FACTOR = 0.1;
+
+    private final String thingName;
+    private final LocalBroker broker;
+    private final ScheduledExecutorService scheduler;
+    private final Profile profile;
+
+    // app name -> package MD5
+    private final Map<String, String> installed = new HashMap<>();
+    private String busyJobId;
+    // a next execution notified while busy, e.g. the service timed the current one out
+    private boolean nextPending;
+
+    public VirtualRanger(final String thingName, final LocalBroker broker, final ScheduledExecutorService scheduler,
+                         final Profile profile) {
+        this.thingName = thingName;
+        this.broker = broker;
+        this.scheduler = scheduler;
+        this.profile = profile;
+    }
+
+    public void connect() {
+        String prefix = String.format("$aws/things/%s/jobs", this.thingName);
+        this.broker.subscribe(this.thingName, prefix + "/notify-next", this::onNotifyNext);
+        this.broker.subscribe(this.thingName, prefix + "/start-next/accepted", this::onStartNextAccepted);
+        this.broker.subscribe(this.thingName, prefix + "/+/update/accepted", this::onUpdateDone);
+        this.broker.subscribe(this.thingName, prefix + "/+/update/rejected", this::onUpdateDone);
+
+        // the daemon asks for the pending execution at start
+        this.publish("start-next", JSON.createObjectNode());
+    }
+
+    private synchronized void onNotifyNext(final AWSIotMessage message) {
+        if (!parse(message).has("execution"))
+            return;
+
+        if (this.busyJobId == null)
+            this.publish("start-next", JSON.createObjectNode());
+        else
+            this.nextPending = true;
+    }
+
+    private synchronized void onStartNextAccepted(final AWSIotMessage message) {
+        JsonNode execution = parse(message).path("execution");
+        String jobId = execution.path("jobId").asText(null);
+        if (jobId == null || jobId.equals(this.busyJobId))
+            return;
+
+        this.busyJobId = jobId;
+
+        Outcome outcome = this.process(execution.path("jobDocument"));
+        long workMillis = (long) (this.profile.workMillis * outcome.workFactor *
+                (0.5 + ThreadLocalRandom.current().nextDouble()));
+
+        this.scheduler.schedule(() -> {
+            ObjectNode update = JSON.createObjectNode();
+            update.put("status", outcome.status);
+            update.putObject("statusDetails").put("detail", outcome.detail);
+            this.publish(String.format("%s/update", jobId), update);
+        }, workMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onUpdateDone(final AWSIotMessage message) {
+        // accepted, or rejected when the execution is timed out by the service
+        this.busyJobId = null;
+
+        // the notification is not sent again, the device asks for the execution on its own
+        if (this.nextPending) {
+            this.nextPending = false;
+            this.publish("start-next", JSON.createObjectNode());
+        }
+    }
+
+    private Outcome process(final JsonNode doc) {
+        if (ThreadLocalRandom.current().nextDouble() < this.profile.failureRate)
+            return new Outcome("FAILED", "injected failure", 1);
+
+        String operate = doc.path("operate").asText();
+        String appName = doc.path("app_name").asText();
+        if (appName.isEmpty())
+            return new Outcome("FAILED", "app_name is missing", 0);
+
+        switch (operate) {
+            case "deploy_app_pkg": {
+                String missing = missing(doc, "pkg_url", "pkg_md5");
+                if (missing != null)
+                    return new Outcome("FAILED", missing, 0);
+                if (!MD5.matcher(doc.path("pkg_md5").asText()).matches())
+                    return new Outcome("FAILED", "invalid pkg_md5", 0);
+
+                this.installed.put(appName, doc.path("pkg_md5").asText());
+                return new Outcome("SUCCEEDED", "deployed", 1);
+            }
+            case "patch_app_pkg": {
+                String missing = missing(doc, "pkg_url", "pkg_md5", "base_tar_md5", "target_tar_md5",
+                        "full_pkg_url", "full_pkg_md5");
+                if (missing != null)
+                    return new Outcome("FAILED", missing, 0);
+
+                String installedTarMd5 = this.profile.tarMd5s.get(this.installed.get(appName));
+                this.installed.put(appName, doc.path("full_pkg_md5").asText());
+                if (doc.path("base_tar_md5").asText().equals(installedTarMd5))
+                    return new Outcome("SUCCEEDED", "patched", PATCH_WORK_FACTOR);
+                return new Outcome("SUCCEEDED", "deployed the full package, the base is not installed", 1);
+            }
+            case "destroy_app_pkg":
+                if (this.installed.remove(appName) == null)
+                    return new Outcome("FAILED", String.format("application %s is not deployed", appName),
+                            DESTROY_WORK_FACTOR);
+                return new Outcome("SUCCEEDED", "destroyed", DESTROY_WORK_FACTOR);
+            default:
+                return new Outcome("FAILED", String.format("unknown operation %s", operate), 0);
+        }
+    }
+
+    private static String missing(final JsonNode doc, final String... fields) {
+        for (String field : fields) {
+            if (doc.path(field).asText().isEmpty())
+                return String.format("%s is missing", field);
+        }
+        return null;
+    }
+
+    private static JsonNode parse(final AWSIotMessage message) {
+        try {
+            return JSON.readTree(message.getPayload());
+        } catch (IOException e) {
+            return JSON.createObjectNode();
+        }
+    }
+
+    private void publish(final String suffix, final JsonNode payload) {
+        try {
+            this.broker.publish(new AWSIotMessage(String.format("$aws/things/%s/jobs/%s", this.thingName, suffix),
+                    AWSIotQos.QOS1, JSON.writeValueAsBytes(payload)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * How the simulated devices behave, shared by the fleet.
+     */
+    public static class Profile {
+        private final long workMillis;
+        private final double failureRate;
+        // package MD5 -> the MD5 of the tar ball in it, to tell whether a patch applies
+        private final Map<String, String> tarMd5s;
+
+        public Profile(final long workMillis, final double failureRate, final Map<String, String> tarMd5s) {
+            this.workMillis = workMillis;
+            this.failureRate = failureRate;
+            this.tarMd5s = tarMd5s;
+        }
+    }
+
+    private static class Outcome {
+        private final String status;
+        private final String detail;
+        private final double workFactor;
+
+        private Outcome(final String status, final String detail, final double workFactor) {
+            this.status = status;
+            this.detail = detail;
+            this.workFactor = workFactor;
+        }
+    }
+}
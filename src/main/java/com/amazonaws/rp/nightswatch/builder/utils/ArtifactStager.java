@@ -0,0 +1,107 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Copies the artifacts, e.g. the packages in the jar, to the local file system through a fixed-size buffer,
+ * the heap used does not grow with the artifact. The MD5 and SHA-256 digests are computed in the same pass,
+ * so the artifact is never read again just to hash it.
+ */
+public class ArtifactStager {
+    private final static int BUFFER_SIZE = 1024 * 1024;
+
+    public StagedArtifact stage(final URL src, final File dst) throws IOException {
+        MessageDigest md5 = newDigest("MD5");
+        MessageDigest sha256 = newDigest("SHA-256");
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long size = 0;
+
+        try (InputStream in = src.openStream();
+             ReadableByteChannel srcChannel = Channels.newChannel(in);
+             FileChannel dstChannel = new FileOutputStream(dst).getChannel()) {
+            while (srcChannel.read(buffer) >= 0 || buffer.position() > 0) {
+                buffer.flip();
+
+                md5.update(buffer.array(), 0, buffer.limit());
+                sha256.update(buffer.array(), 0, buffer.limit());
+                size += buffer.limit();
+
+                while (buffer.hasRemaining())
+                    dstChannel.write(buffer);
+                buffer.clear();
+            }
+        }
+
+        byte[] md5Digest = md5.digest();
+
+        return new StagedArtifact(dst, size, Hex.encodeHexString(md5Digest),
+                Hex.encodeHexString(sha256.digest()), Base64.encodeBase64String(md5Digest));
+    }
+
+    /**
+     * Stages the gzip compressed tar ball recompressed by the codec and level, the tar ball is streamed
+     * through the codecs and the digests are computed on the recompressed output in the same pass.
+     */
+    public StagedArtifact stage(final URL src, final File dst, final PackageCompression compression)
+            throws IOException {
+        MessageDigest md5 = newDigest("MD5");
+        MessageDigest sha256 = newDigest("SHA-256");
+        long size;
+
+        try (InputStream in = PackageCompression.GZIP.decompress(src.openStream());
+             CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(
+                     new DigestOutputStream(new FileOutputStream(dst), md5), sha256))) {
+            try (OutputStream out = compression.compress(new CloseShieldOutputStream(counter))) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer))
+                    out.write(buffer, 0, n);
+            }
+            size = counter.getByteCount();
+        }
+
+        byte[] md5Digest = md5.digest();
+
+        return new StagedArtifact(dst, size, Hex.encodeHexString(md5Digest),
+                Hex.encodeHexString(sha256.digest()), Base64.encodeBase64String(md5Digest));
+    }
+
+    /**
+     * Stages the content built in memory, e.g. a package patch.
+     */
+    public StagedArtifact stage(final byte[] content, final File dst) throws IOException {
+        Files.write(dst.toPath(), content);
+
+        byte[] md5Digest = newDigest("MD5").digest(content);
+
+        return new StagedArtifact(dst, content.length, Hex.encodeHexString(md5Digest),
+                Hex.encodeHexString(newDigest("SHA-256").digest(content)), Base64.encodeBase64String(md5Digest));
+    }
+
+    private static MessageDigest newDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 and SHA-256 are required on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
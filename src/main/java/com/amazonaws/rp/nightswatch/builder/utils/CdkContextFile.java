@@ -0,0 +1,57 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The context file `cdk.context.json` in the working directory, where `cdk` caches the lookups.
+ *
+ * The commands put the values the stacks depend on into it, so the synthesis reads them by
+ * {@code tryGetContext} instead of calling the AWS services, and works offline against the file.
+ * The other keys, e.g. the lookups cached by `cdk`, are kept.
+ */
+public class CdkContextFile {
+    public final static String FILE_NAME = "cdk.context.json";
+
+    private final static ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final File file;
+
+    public CdkContextFile() {
+        this(new File(System.getProperty("user.dir"), FILE_NAME));
+    }
+
+    public CdkContextFile(final File file) {
+        this.file = file;
+    }
+
+    public synchronized void put(final Logger log, final String key, final String value) throws IOException {
+        ObjectNode context;
+        if (this.file.exists()) {
+            JsonNode node = JSON.readTree(this.file);
+            if (!(node instanceof ObjectNode))
+                throw new IOException(String.format("invalid CDK context file %s, not a JSON object", this.file));
+            context = (ObjectNode) node;
+        } else {
+            context = JSON.createObjectNode();
+        }
+
+        context.put(key, value);
+
+        // `cdk` never reads a half written file
+        File tmpFile = new File(this.file.getAbsoluteFile().getParentFile(), this.file.getName() + ".tmp");
+        JSON.writeValue(tmpFile, context);
+        Files.move(tmpFile.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.debug(String.format("the CDK context %s is saved to %s", key, this.file));
+    }
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.regions.DefaultAwsRegionProviderChain;
+import com.amazonaws.services.cloudformation.AmazonCloudFormation;
+import com.amazonaws.services.cloudformation.AmazonCloudFormationClientBuilder;
+import com.amazonaws.services.iot.AWSIot;
+import com.amazonaws.services.iot.AWSIotClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Hands out one shared client per AWS service and region, so credentials resolving, connection pool
+ * and TLS session are built once per process instead of once per call. The SDK clients are thread-safe.
+ *
+ * The client configuration follows the system properties below:
+ * - nightswatch.aws.max-connections: max connections in the pool of each client, default 50
+ * - nightswatch.aws.connection-timeout-ms: connection timeout, default 10000
+ * - nightswatch.aws.socket-timeout-ms: socket timeout, default 50000
+ * - nightswatch.aws.connection-ttl-ms: how long a pooled connection is kept, default -1 (no expiration)
+ * - nightswatch.aws.tcp-keep-alive: enable TCP keep-alive, default true
+ * - nightswatch.aws.endpoint.[s3|iot|cloudformation]: endpoint override, e.g. a local stand-in service
+ */
+public class ClientRegistry {
+    private final static String PROPERTY_PREFIX = "nightswatch.aws.";
+
+    private final static Map<String, Object> CLIENTS = new ConcurrentHashMap<>();
+
+    private ClientRegistry() {
+    }
+
+    public static AmazonS3 s3() {
+        return s3(null);
+    }
+
+    public static AmazonS3 s3(final String region) {
+        return get("s3", region, () -> {
+            AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard();
+            // a local stand-in normally does not serve virtual hosted-style bucket addressing
+            if (endpoint("s3") != null)
+                builder.setPathStyleAccessEnabled(true);
+            return configure(builder, "s3", region).build();
+        });
+    }
+
+    public static AWSIot iot() {
+        return iot(null);
+    }
+
+    public static AWSIot iot(final String region) {
+        return get("iot", region, () -> configure(AWSIotClientBuilder.standard(), "iot", region).build());
+    }
+
+    public static AmazonCloudFormation cloudFormation() {
+        return cloudFormation(null);
+    }
+
+    public static AmazonCloudFormation cloudFormation(final String region) {
+        return get("cloudformation", region, () ->
+                configure(AmazonCloudFormationClientBuilder.standard(), "cloudformation", region).build());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(final String service, final String region, final Supplier<T> factory) {
+        String key = String.format("%s@%s", service, region == null ? "" : region);
+        return (T) CLIENTS.computeIfAbsent(key, k -> factory.get());
+    }
+
+    private static <B extends AwsClientBuilder<B, ?>> B configure(final B builder, final String service,
+                                                                  final String region) {
+        builder.setClientConfiguration(clientConfiguration());
+
+        String endpoint = endpoint(service);
+        if (endpoint != null) {
+            String signingRegion = region;
+            if (signingRegion == null)
+                signingRegion = new DefaultAwsRegionProviderChain().getRegion();
+            builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, signingRegion));
+        } else if (region != null) {
+            builder.setRegion(region);
+        }
+
+        return builder;
+    }
+
+    private static ClientConfiguration clientConfiguration() {
+        return new ClientConfiguration()
+                .withMaxConnections(Integer.getInteger(PROPERTY_PREFIX + "max-connections", 50))
+                .withConnectionTimeout(Integer.getInteger(PROPERTY_PREFIX + "connection-timeout-ms", 10000))
+                .withSocketTimeout(Integer.getInteger(PROPERTY_PREFIX + "socket-timeout-ms", 50000))
+                .withConnectionTTL(Long.getLong(PROPERTY_PREFIX + "connection-ttl-ms", -1L))
+                .withTcpKeepAlive(Boolean.parseBoolean(
+                        System.getProperty(PROPERTY_PREFIX + "tcp-keep-alive", "true")));
+    }
+
+    private static String endpoint(final String service) {
+        return System.getProperty(PROPERTY_PREFIX + "endpoint." + service);
+    }
+}
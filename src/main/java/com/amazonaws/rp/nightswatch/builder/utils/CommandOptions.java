@@ -0,0 +1,140 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import java.util.*;
+
+/**
+ * The command options in the form of `--name=value` and `--flag`, and the arguments without the leading `--`.
+ *
+ * A config declares the options it takes, then reads the parsed ones by the typed getters with its defaults:
+ * <pre>
+ * CommandOptions parsed = new CommandOptions()
+ *         .value("--threads")
+ *         .flag("--restart")
+ *         .parse(options);
+ * int threads = parsed.getInt("--threads", 4);
+ * </pre>
+ * An option not declared, a value given to a flag or missing for a value option, and a value not
+ * of the type read all fail the parsing with IllegalArgumentException.
+ */
+public class CommandOptions {
+    private final Set<String> valueNames = new HashSet<>();
+    private final Set<String> flagNames = new HashSet<>();
+    private int maxArguments = 0;
+
+    private final Map<String, List<String>> values = new HashMap<>();
+    private final Set<String> flags = new HashSet<>();
+    private final List<String> arguments = new ArrayList<>();
+
+    public CommandOptions value(final String... names) {
+        this.valueNames.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    public CommandOptions flag(final String... names) {
+        this.flagNames.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * Takes at most the count of the arguments, none by default.
+     */
+    public CommandOptions arguments(final int maxArguments) {
+        this.maxArguments = maxArguments;
+        return this;
+    }
+
+    public CommandOptions parse(final List<String> options) {
+        for (String option : options) {
+            if (!option.startsWith("--")) {
+                if (this.arguments.size() >= this.maxArguments)
+                    throw new IllegalArgumentException(String.format("invalid option %s", option));
+                this.arguments.add(option);
+                continue;
+            }
+
+            int idx = option.indexOf('=');
+            String name = idx < 0 ? option : option.substring(0, idx);
+
+            if (idx < 0 && this.flagNames.contains(name))
+                this.flags.add(name);
+            else if (idx >= 0 && this.valueNames.contains(name))
+                this.values.computeIfAbsent(name, n -> new ArrayList<>()).add(option.substring(idx + 1));
+            else
+                throw new IllegalArgumentException(String.format("invalid option %s", option));
+        }
+
+        return this;
+    }
+
+    public boolean has(final String name) {
+        return this.flags.contains(name) || this.values.containsKey(name);
+    }
+
+    /**
+     * @return the value given last, or the default if the option is not given
+     */
+    public String get(final String name, final String defaultValue) {
+        List<String> values = this.values.get(name);
+        return values == null ? defaultValue : values.get(values.size() - 1);
+    }
+
+    /**
+     * @return the values of all occurrences of the option in order, empty if it is not given
+     */
+    public List<String> getAll(final String name) {
+        return this.values.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * @return the comma separated names of all occurrences of the option, the empty names are skipped,
+     * or the default if the option is not given
+     */
+    public List<String> getList(final String name, final List<String> defaultValue) {
+        if (!this.values.containsKey(name))
+            return defaultValue;
+
+        List<String> names = new ArrayList<>();
+        for (String value : this.getAll(name)) {
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty())
+                    names.add(item.trim());
+            }
+        }
+        return names;
+    }
+
+    public Integer getInt(final String name, final Integer defaultValue) {
+        String value = this.get(name, null);
+        try {
+            return value == null ? defaultValue : Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw invalidValue(name, value);
+        }
+    }
+
+    public Long getLong(final String name, final Long defaultValue) {
+        String value = this.get(name, null);
+        try {
+            return value == null ? defaultValue : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw invalidValue(name, value);
+        }
+    }
+
+    public Double getDouble(final String name, final Double defaultValue) {
+        String value = this.get(name, null);
+        try {
+            return value == null ? defaultValue : Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw invalidValue(name, value);
+        }
+    }
+
+    public List<String> getArguments() {
+        return Collections.unmodifiableList(this.arguments);
+    }
+
+    private static IllegalArgumentException invalidValue(final String name, final String value) {
+        return new IllegalArgumentException(String.format("invalid value %s of option %s", value, name));
+    }
+}
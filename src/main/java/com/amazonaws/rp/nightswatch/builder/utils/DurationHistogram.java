@@ -0,0 +1,64 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of durations in logarithmic buckets, the memory is fixed however many durations
+ * are recorded, the percentiles are accurate to the bucket width of 5%.
+ */
+public class DurationHistogram {
+    private final static double BUCKET_RATIO = 1.05;
+    // 0 and 1 ms to beyond a year
+    private final static int BUCKETS = 520;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(final long millis) {
+        long value = Math.max(0, millis);
+        this.counts.incrementAndGet(bucket(value));
+        this.count.incrementAndGet();
+        this.min.accumulateAndGet(value, Math::min);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMax() {
+        return this.count.get() == 0 ? 0 : this.max.get();
+    }
+
+    /**
+     * @return the upper bound of the bucket the percentile falls in, within the recorded min and max
+     */
+    public long percentile(final double percentile) {
+        long total = this.count.get();
+        if (total == 0)
+            return 0;
+
+        // nearest rank
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank)
+                return Math.max(this.min.get(), Math.min(this.max.get(), upperBound(i)));
+        }
+        return this.max.get();
+    }
+
+    private static int bucket(final long millis) {
+        if (millis == 0)
+            return 0;
+        return (int) Math.min(BUCKETS - 1, 1 + Math.ceil(Math.log(millis) / Math.log(BUCKET_RATIO)));
+    }
+
+    private static long upperBound(final int bucket) {
+        return bucket == 0 ? 0 : (long) Math.floor(Math.pow(BUCKET_RATIO, bucket - 1));
+    }
+}
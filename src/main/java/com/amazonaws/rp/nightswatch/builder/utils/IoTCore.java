@@ -1,39 +1,311 @@
 package com.amazonaws.rp.nightswatch.builder.utils;
 
 import com.amazonaws.services.iot.AWSIot;
-import com.amazonaws.services.iot.AWSIotClientBuilder;
-import com.amazonaws.services.iot.model.DeleteJobRequest;
-import com.amazonaws.services.iot.model.DescribeJobRequest;
-import com.amazonaws.services.iot.model.ResourceNotFoundException;
+import com.amazonaws.services.iot.model.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The job deletion is asynchronous: the deletion progress is polled with exponential back off and jitter
+ * on a shared scheduler, instead of a busy loop, and many jobs are deleted concurrently.
+ *
+ * The concurrency and overall timeout follow the system properties
+ * nightswatch.iot.job-deletion-concurrency (default 10) and
+ * nightswatch.iot.job-deletion-timeout-seconds (default 300).
+ */
 public class IoTCore {
+    private final static ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(
+            Integer.getInteger("nightswatch.iot.threads", 8),
+            new ThreadFactoryBuilder().setNameFormat("nightswatch-iot-%d").setDaemon(true).build());
+
+    // the targets of one CreateJob request
+    public final static int MAX_JOB_TARGETS = 100;
+
+    private final static long POLL_BASE_DELAY_MILLIS = 500;
+    private final static long POLL_MAX_DELAY_MILLIS = 10000;
+
+    private final static int DEFAULT_DELETION_CONCURRENCY =
+            Integer.getInteger("nightswatch.iot.job-deletion-concurrency", 10);
+    private final static Duration DEFAULT_DELETION_TIMEOUT =
+            Duration.ofSeconds(Long.getLong("nightswatch.iot.job-deletion-timeout-seconds", 300));
+
     public void deleteJob(final Logger log, final String... JobIDs) {
-        AWSIot client = AWSIotClientBuilder.defaultClient();
+        try {
+            this.deleteJobs(log, DEFAULT_DELETION_CONCURRENCY, DEFAULT_DELETION_TIMEOUT, JobIDs).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Void> deleteJobs(final Logger log, final String... jobIDs) {
+        return this.deleteJobs(log, DEFAULT_DELETION_CONCURRENCY, DEFAULT_DELETION_TIMEOUT, jobIDs);
+    }
+
+    /**
+     * Deletes the jobs with at most `concurrency` deletions in progress at a time,
+     * the returned future fails with TimeoutException if they are not all deleted in `timeout`,
+     * and then the deletions in progress stop polling and the pending jobs are not deleted.
+     */
+    public CompletableFuture<Void> deleteJobs(final Logger log, final int concurrency, final Duration timeout,
+                                              final String... jobIDs) {
+        if (concurrency < 1)
+            throw new IllegalArgumentException(String.format("invalid job deletion concurrency %d", concurrency));
+
+        Queue<String> pending = new ConcurrentLinkedQueue<>(Arrays.asList(jobIDs));
+        Set<CompletableFuture<Void>> inProgress = ConcurrentHashMap.newKeySet();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(concurrency, jobIDs.length); i++)
+            workers.add(this.deleteNext(log, pending, inProgress, cancelled));
+
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0]))
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((v, e) -> {
+                    if (e == null)
+                        return;
+
+                    // e.g. timed out, the workers take no more job and the pollers stop at the next round
+                    cancelled.set(true);
+                    pending.clear();
+                    for (CompletableFuture<Void> future : inProgress)
+                        future.cancel(false);
+                });
+    }
+
+    private CompletableFuture<Void> deleteNext(final Logger log, final Queue<String> pending,
+                                               final Set<CompletableFuture<Void>> inProgress,
+                                               final AtomicBoolean cancelled) {
+        String jobID = cancelled.get() ? null : pending.poll();
+        if (jobID == null)
+            return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> future = this.deleteJobAsync(log, jobID);
+        inProgress.add(future);
+        // cancelled while the job is taken
+        if (cancelled.get())
+            future.cancel(false);
+
+        return future
+                .whenComplete((v, e) -> inProgress.remove(future))
+                .thenCompose(v -> this.deleteNext(log, pending, inProgress, cancelled));
+    }
+
+    /**
+     * Deletes the job and completes the returned future once the job is gone completely.
+     */
+    public CompletableFuture<Void> deleteJobAsync(final Logger log, final String jobID) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        // from the request to the job is gone
+        Metrics.Span span = Metrics.span("iot.delete-job");
+        future.whenComplete((v, e) -> {
+            if (e == null)
+                span.ok();
+            span.close();
+        });
+
+        SCHEDULER.execute(() -> {
+            if (future.isDone())
+                // e.g. cancelled before started
+                return;
 
-        for (String jobID : JobIDs) {
             try {
+                AWSIot client = ClientRegistry.iot();
+
                 // delete existing job
-                DeleteJobRequest req1 = new DeleteJobRequest();
-                req1.setForce(true);
-                req1.setJobId(jobID);
+                DeleteJobRequest req = new DeleteJobRequest();
+                req.setForce(true);
+                req.setJobId(jobID);
 
-                client.deleteJob(req1);
+                client.deleteJob(req);
 
                 log.debug(String.format("waiting the thing job %s is deleted ...", jobID));
 
-                try {
-                    DescribeJobRequest req2 = new DescribeJobRequest();
-                    while (true) {
-                        req2.setJobId(jobID);
-                        client.describeJob(req2);
-                    }
-                } catch (ResourceNotFoundException e) {
-                    // job is completely deleted
-                }
+                this.pollJobDeleted(log, jobID, 0, future);
             } catch (ResourceNotFoundException e) {
                 // job is not existing
+                future.complete(null);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        return future;
+    }
+
+    private void pollJobDeleted(final Logger log, final String jobID, final int attempt,
+                                final CompletableFuture<Void> future) {
+        if (future.isDone())
+            // e.g. cancelled on the timeout
+            return;
+
+        long delay = Math.min(POLL_MAX_DELAY_MILLIS, POLL_BASE_DELAY_MILLIS << Math.min(attempt, 16));
+        // equal jitter, spreads the polls of the concurrent deletions
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+        SCHEDULER.schedule(() -> {
+            if (future.isDone())
+                return;
+
+            try {
+                DescribeJobRequest req = new DescribeJobRequest();
+                req.setJobId(jobID);
+                Metrics.count("iot.describe-job.polls");
+                ClientRegistry.iot().describeJob(req);
+
+                this.pollJobDeleted(log, jobID, attempt + 1, future);
+            } catch (ResourceNotFoundException e) {
+                // job is completely deleted
+                future.complete(null);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the job for the targets directly. Targets beyond the limit of one job are batched into
+     * more jobs, named `<jobID>-<n>` from the second one. The batches roll out at the same time, so the rate
+     * limit is divided across them, a large fleet is better targeted by the thing groups than batched.
+     *
+     * @param targets                  the ARNs of things and thing groups
+     * @param maxPerMinute             the maximum job executions started per minute of all batches,
+     *                                 null for no limit
+     * @param inProgressTimeoutMinutes the job execution in progress timeout, null for no timeout
+     * @param urlExpiresSec            how long the pre-signed URLs in the job document are valid
+     * @return the IDs of created jobs
+     */
+    public List<String> createJobs(final Logger log, final String jobID, final String jobDocUrl,
+                                   final String preSignRoleARN, final List<String> targets,
+                                   final Integer maxPerMinute, final Long inProgressTimeoutMinutes,
+                                   final long urlExpiresSec) {
+        if (targets.isEmpty())
+            throw new IllegalArgumentException(String.format("no target for the job %s", jobID));
+
+        int batches = (targets.size() + MAX_JOB_TARGETS - 1) / MAX_JOB_TARGETS;
+        if (maxPerMinute != null && maxPerMinute < batches)
+            log.warn(String.format("the rate limit %d per minute is below the %d batches of the job %s, " +
+                    "each batch starts 1 execution per minute, target the thing groups instead",
+                    maxPerMinute, batches, jobID));
+
+        AWSIot client = ClientRegistry.iot();
+
+        List<String> jobIDs = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i += MAX_JOB_TARGETS) {
+            List<String> batch = targets.subList(i, Math.min(i + MAX_JOB_TARGETS, targets.size()));
+            String batchJobID = i == 0 ? jobID : String.format("%s-%d", jobID, i / MAX_JOB_TARGETS + 1);
+
+            CreateJobRequest req = new CreateJobRequest()
+                    .withJobId(batchJobID)
+                    .withTargets(batch)
+                    .withTargetSelection(TargetSelection.SNAPSHOT)
+                    .withDocumentSource(jobDocUrl)
+                    .withPresignedUrlConfig(new PresignedUrlConfig()
+                            .withRoleArn(preSignRoleARN)
+                            .withExpiresInSec(urlExpiresSec));
+
+            if (maxPerMinute != null) {
+                // the remainder goes to the first batches, each batch starts 1 execution per minute at least
+                int batchNo = i / MAX_JOB_TARGETS;
+                int batchMaxPerMinute = Math.max(1,
+                        maxPerMinute / batches + (batchNo < maxPerMinute % batches ? 1 : 0));
+                req.setJobExecutionsRolloutConfig(
+                        new JobExecutionsRolloutConfig().withMaximumPerMinute(batchMaxPerMinute));
+            }
+            if (inProgressTimeoutMinutes != null)
+                req.setTimeoutConfig(new TimeoutConfig().withInProgressTimeoutInMinutes(inProgressTimeoutMinutes));
+
+            try (Metrics.Span span = Metrics.span("iot.create-job")) {
+                client.createJob(req);
+                span.ok();
+            }
+
+            log.info(String.format("the job %s is created for %d targets", batchJobID, batch.size()));
+
+            jobIDs.add(batchJobID);
+        }
+
+        return jobIDs;
+    }
+
+    /**
+     * Lists the IDs of all jobs starting with the prefix, e.g. to find the batched jobs.
+     */
+    public List<String> listJobIDs(final Logger log, final String prefix) {
+        AWSIot client = ClientRegistry.iot();
+
+        List<String> jobIDs = new ArrayList<>();
+        ListJobsRequest req = new ListJobsRequest().withMaxResults(250);
+        ListJobsResult result;
+
+        do {
+            try (Metrics.Span span = Metrics.span("iot.list-jobs")) {
+                result = client.listJobs(req);
+                span.ok();
+            }
+
+            for (JobSummary summary : result.getJobs()) {
+                if (summary.getJobId().startsWith(prefix))
+                    jobIDs.add(summary.getJobId());
             }
+
+            req.setNextToken(result.getNextToken());
+        } while (result.getNextToken() != null);
+
+        log.debug(String.format("%d jobs found with the prefix %s", jobIDs.size(), prefix));
+
+        return jobIDs;
+    }
+
+    /**
+     * Pages through the executions of the job in the status, each page is handed to the consumer before
+     * the next one is requested, so the executions are never held all at once.
+     *
+     * @return the count of the executions scanned
+     */
+    public long scanJobExecutions(final Logger log, final String jobID, final String status,
+                                  final Consumer<List<JobExecutionSummaryForJob>> consumer) {
+        AWSIot client = ClientRegistry.iot();
+
+        ListJobExecutionsForJobRequest req = new ListJobExecutionsForJobRequest()
+                .withJobId(jobID)
+                .withStatus(status)
+                .withMaxResults(250);
+        ListJobExecutionsForJobResult result;
+        long scanned = 0;
+
+        do {
+            try (Metrics.Span span = Metrics.span("iot.list-job-executions-for-job")) {
+                result = client.listJobExecutionsForJob(req);
+                span.ok();
+            }
+
+            consumer.accept(result.getExecutionSummaries());
+            scanned += result.getExecutionSummaries().size();
+
+            req.setNextToken(result.getNextToken());
+        } while (result.getNextToken() != null);
+
+        log.debug(String.format("%d %s executions of the job %s are scanned", scanned, status, jobID));
+
+        return scanned;
+    }
+
+    public JobExecution describeJobExecution(final String jobID, final String thingName) {
+        try (Metrics.Span span = Metrics.span("iot.describe-job-execution")) {
+            JobExecution execution = ClientRegistry.iot().describeJobExecution(
+                    new DescribeJobExecutionRequest().withJobId(jobID).withThingName(thingName)).getExecution();
+            span.ok();
+            return execution;
         }
     }
 }
@@ -0,0 +1,191 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process wide call counts, latencies, bytes transferred and retries of the remote calls and the phases
+ * of a command, reported in JSON at exit with the latency percentiles of each timer.
+ *
+ * A timer is recorded by a span:
+ * <pre>
+ * try (Metrics.Span span = Metrics.span("s3.put-object")) {
+ *     ...
+ *     span.bytes(length);
+ * }
+ * </pre>
+ * The span not marked succeeded by {@link Span#ok()} counts as an error.
+ *
+ * The report goes to target/nightswatch-metrics/<command>-<time>.json by default, the system property
+ * nightswatch.metrics.report sets the file, or disables the report by `false`.
+ */
+public class Metrics {
+    // the latency samples kept for the percentiles of a timer, reservoir sampled beyond
+    private final static int MAX_SAMPLES = 10000;
+
+    private final static Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private final static Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    private static volatile boolean reportInstalled = false;
+
+    public static Span span(final String name) {
+        return new Span(TIMERS.computeIfAbsent(name, n -> new Timer()));
+    }
+
+    public static void count(final String name) {
+        count(name, 1);
+    }
+
+    public static void count(final String name, final long delta) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Writes the report of the command when the process exits.
+     */
+    public static synchronized void installReport(final String command) {
+        String target = System.getProperty("nightswatch.metrics.report");
+        if (reportInstalled || "false".equalsIgnoreCase(target))
+            return;
+
+        Instant started = Instant.now();
+        long startNanos = System.nanoTime();
+        File reportFile = target != null ? new File(target) : new File(String.format(
+                "%s/target/nightswatch-metrics/%s-%d.json", System.getProperty("user.dir"),
+                command.replaceAll("[^A-Za-z0-9_.-]", "_"), started.toEpochMilli()));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                writeReport(reportFile, command, started, startNanos);
+            } catch (IOException e) {
+                System.err.println(String.format("failed to write the metrics report %s: %s",
+                        reportFile, e.getMessage()));
+            }
+        }, "nightswatch-metrics-report"));
+
+        reportInstalled = true;
+    }
+
+    private static void writeReport(final File reportFile, final String command, final Instant started,
+                                    final long startNanos) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("command", command);
+        report.put("started", started.toString());
+        report.put("duration_ms", (System.nanoTime() - startNanos) / 1e6);
+
+        Map<String, Object> timers = new TreeMap<>();
+        for (Map.Entry<String, Timer> entry : TIMERS.entrySet())
+            timers.put(entry.getKey(), entry.getValue().snapshot());
+        report.put("timers", timers);
+
+        Map<String, Long> counters = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet())
+            counters.put(entry.getKey(), entry.getValue().sum());
+        report.put("counters", counters);
+
+        File dir = reportFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException(String.format("failed to create the metrics report directory at %s", dir));
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportFile, report);
+    }
+
+    /**
+     * Records the latency and bytes of one call or phase when it is closed.
+     */
+    public static class Span implements AutoCloseable {
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private long bytes = 0;
+        private boolean ok = false;
+        private boolean closed = false;
+
+        private Span(final Timer timer) {
+            this.timer = timer;
+        }
+
+        public Span bytes(final long bytes) {
+            this.bytes += bytes;
+            return this;
+        }
+
+        public Span ok() {
+            this.ok = true;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (this.closed)
+                return;
+            this.closed = true;
+
+            this.timer.record(System.nanoTime() - this.start, this.bytes, this.ok);
+        }
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final long[] samples = new long[MAX_SAMPLES];
+        private long sampled = 0;
+
+        private void record(final long nanos, final long bytes, final boolean ok) {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.bytes.add(bytes);
+            if (!ok)
+                this.errors.increment();
+
+            synchronized (this) {
+                if (this.sampled < MAX_SAMPLES) {
+                    this.samples[(int) this.sampled] = nanos;
+                } else {
+                    long idx = ThreadLocalRandom.current().nextLong(this.sampled + 1);
+                    if (idx < MAX_SAMPLES)
+                        this.samples[(int) idx] = nanos;
+                }
+                this.sampled++;
+            }
+        }
+
+        private Map<String, Object> snapshot() {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(this.samples, (int) Math.min(this.sampled, MAX_SAMPLES));
+            }
+            Arrays.sort(sorted);
+
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("count", this.count.sum());
+            snapshot.put("errors", this.errors.sum());
+            snapshot.put("bytes", this.bytes.sum());
+            snapshot.put("total_ms", this.totalNanos.sum() / 1e6);
+            if (sorted.length > 0) {
+                snapshot.put("min_ms", sorted[0] / 1e6);
+                snapshot.put("p50_ms", percentile(sorted, 50) / 1e6);
+                snapshot.put("p90_ms", percentile(sorted, 90) / 1e6);
+                snapshot.put("p99_ms", percentile(sorted, 99) / 1e6);
+                snapshot.put("max_ms", sorted[sorted.length - 1] / 1e6);
+            }
+            return snapshot;
+        }
+
+        // nearest rank
+        private static long percentile(final long[] sorted, final int percentile) {
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The codec and level a package tar ball is compressed with, in the form `<codec>[:<level>]`, e.g. `xz:6`.
+ *
+ * Supported codecs:
+ * gzip  level 1 to 9, 6 by default, the format of the bundled packages
+ * xz    level 0 to 9, 6 by default
+ * zstd  level 1 to 22, 3 by default
+ */
+public class PackageCompression {
+    public final static PackageCompression GZIP = new PackageCompression(Codec.GZIP, Codec.GZIP.defaultLevel);
+
+    public enum Codec {
+        GZIP("gzip", "tar.gz", 1, 9, 6),
+        XZ("xz", "tar.xz", 0, 9, 6),
+        ZSTD("zstd", "tar.zst", 1, 22, 3);
+
+        private final String name;
+        private final String extension;
+        private final int minLevel;
+        private final int maxLevel;
+        private final int defaultLevel;
+
+        Codec(final String name, final String extension, final int minLevel, final int maxLevel,
+              final int defaultLevel) {
+            this.name = name;
+            this.extension = extension;
+            this.minLevel = minLevel;
+            this.maxLevel = maxLevel;
+            this.defaultLevel = defaultLevel;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public static Codec of(final String name) {
+            for (Codec codec : values()) {
+                if (codec.name.equals(name))
+                    return codec;
+            }
+            throw new IllegalArgumentException(String.format("invalid package codec %s", name));
+        }
+    }
+
+    private final Codec codec;
+    private final int level;
+
+    public PackageCompression(final Codec codec, final int level) {
+        if (level < codec.minLevel || level > codec.maxLevel)
+            throw new IllegalArgumentException(String.format("invalid %s level %d, %d to %d expected",
+                    codec.name, level, codec.minLevel, codec.maxLevel));
+
+        this.codec = codec;
+        this.level = level;
+    }
+
+    public static PackageCompression parse(final String value) {
+        int idx = value.indexOf(':');
+        if (idx < 0) {
+            Codec codec = Codec.of(value.trim());
+            return new PackageCompression(codec, codec.defaultLevel);
+        }
+
+        return new PackageCompression(Codec.of(value.substring(0, idx).trim()),
+                Integer.parseInt(value.substring(idx + 1).trim()));
+    }
+
+    /**
+     * Follows the system property nightswatch.app.codec.<arch>, or nightswatch.app.codec for all architectures.
+     *
+     * @return the compression configured for the architecture, or null to deliver the bundled package as is
+     */
+    public static PackageCompression forArch(final String arch) {
+        String value = System.getProperty(String.format("nightswatch.app.codec.%s", arch),
+                System.getProperty("nightswatch.app.codec"));
+        return value == null ? null : parse(value);
+    }
+
+    public OutputStream compress(final OutputStream out) throws IOException {
+        switch (this.codec) {
+            case XZ:
+                return new XZCompressorOutputStream(out, this.level);
+            case ZSTD:
+                return new ZstdCompressorOutputStream(out, this.level);
+            default:
+                GzipParameters params = new GzipParameters();
+                params.setCompressionLevel(this.level);
+                return new GzipCompressorOutputStream(out, params);
+        }
+    }
+
+    public InputStream decompress(final InputStream in) throws IOException {
+        switch (this.codec) {
+            case XZ:
+                return new XZCompressorInputStream(in);
+            case ZSTD:
+                return new ZstdCompressorInputStream(in);
+            default:
+                return new GzipCompressorInputStream(in);
+        }
+    }
+
+    public Codec getCodec() {
+        return this.codec;
+    }
+
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * @return the file name extension, e.g. tar.xz
+     */
+    public String getExtension() {
+        return this.codec.extension;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s:%d", this.codec.name, this.level);
+    }
+}
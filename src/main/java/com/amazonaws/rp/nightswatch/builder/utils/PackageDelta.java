@@ -0,0 +1,194 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates and applies the binary delta between two versions of a package.
+ *
+ * The delta is computed on the uncompressed tar balls, the gzip streams of two similar tar balls share
+ * little. The blocks of the base are indexed by a rolling hash, the target is scanned byte by byte and
+ * each match is extended as far as the content is equal.
+ *
+ * The patch is gzip compressed, the uncompressed format is:
+ * <pre>
+ * "NWDELTA1"                      magic
+ * int64 target length
+ * repeated:
+ *   'C' int64 offset, int32 length   copy from the base
+ *   'I' int32 length, bytes          insert the bytes
+ * 'E'                             end
+ * </pre>
+ * All integers are big-endian.
+ */
+public class PackageDelta {
+    private final static byte[] MAGIC = "NWDELTA1".getBytes(StandardCharsets.US_ASCII);
+
+    private final static byte OP_COPY = 'C';
+    private final static byte OP_INSERT = 'I';
+    private final static byte OP_END = 'E';
+
+    // the shorter matches cost more to encode than to insert
+    private final static int BLOCK_SIZE = 32;
+    private final static int HASH_MULTIPLIER = 31;
+
+    /**
+     * @return the gzip compressed patch to turn the base to the target
+     */
+    public static byte[] diff(final byte[] base, final byte[] target) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, target.length / 8));
+
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(buffer))) {
+            out.write(MAGIC);
+            out.writeLong(target.length);
+
+            Map<Integer, Integer> index = indexBlocks(base);
+
+            int insertStart = 0;
+            int pos = 0;
+            int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+            int power = power();
+
+            while (pos + BLOCK_SIZE <= target.length) {
+                Integer offset = index.get(hash);
+
+                if (offset != null && equals(base, offset, target, pos, BLOCK_SIZE)) {
+                    // extend the match backward into the pending insert, then forward
+                    int baseStart = offset;
+                    int targetStart = pos;
+                    while (baseStart > 0 && targetStart > insertStart &&
+                            base[baseStart - 1] == target[targetStart - 1]) {
+                        baseStart--;
+                        targetStart--;
+                    }
+
+                    int end = pos + BLOCK_SIZE;
+                    int baseEnd = offset + BLOCK_SIZE;
+                    while (end < target.length && baseEnd < base.length && base[baseEnd] == target[end]) {
+                        end++;
+                        baseEnd++;
+                    }
+
+                    writeInsert(out, target, insertStart, targetStart);
+                    writeCopy(out, baseStart, end - targetStart);
+
+                    insertStart = end;
+                    pos = end;
+                    if (pos + BLOCK_SIZE <= target.length)
+                        hash = hash(target, pos);
+                    continue;
+                }
+
+                if (pos + BLOCK_SIZE < target.length)
+                    hash = (hash - target[pos] * power) * HASH_MULTIPLIER + target[pos + BLOCK_SIZE];
+                pos++;
+            }
+
+            writeInsert(out, target, insertStart, target.length);
+            out.writeByte(OP_END);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Applies the patch to the base, the builder verifies a patch before it is published.
+     *
+     * @return the target
+     */
+    public static byte[] apply(final byte[] base, final byte[] patch) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(patch)))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic))
+                throw new IOException("invalid package patch, bad magic");
+
+            long targetLength = in.readLong();
+            if (targetLength < 0 || targetLength > Integer.MAX_VALUE)
+                throw new IOException(String.format("invalid package patch, target length %d", targetLength));
+
+            byte[] target = new byte[(int) targetLength];
+            int pos = 0;
+
+            for (byte op = in.readByte(); op != OP_END; op = in.readByte()) {
+                if (op == OP_COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > base.length || pos + length > target.length)
+                        throw new IOException(String.format(
+                                "invalid package patch, copy %d bytes at %d out of range", length, offset));
+
+                    System.arraycopy(base, (int) offset, target, pos, length);
+                    pos += length;
+                } else if (op == OP_INSERT) {
+                    int length = in.readInt();
+                    if (length < 0 || pos + length > target.length)
+                        throw new IOException(String.format(
+                                "invalid package patch, insert %d bytes out of range", length));
+
+                    in.readFully(target, pos, length);
+                    pos += length;
+                } else {
+                    throw new IOException(String.format("invalid package patch, unknown operation %d", op));
+                }
+            }
+
+            if (pos != target.length)
+                throw new IOException(String.format(
+                        "invalid package patch, %d bytes produced but %d expected", pos, target.length));
+
+            return target;
+        }
+    }
+
+    private static Map<Integer, Integer> indexBlocks(final byte[] base) {
+        Map<Integer, Integer> index = new HashMap<>(Math.max(16, base.length / BLOCK_SIZE * 2));
+
+        // the aligned blocks only, the target is scanned at every offset
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE)
+            index.putIfAbsent(hash(base, offset), offset);
+
+        return index;
+    }
+
+    private static int hash(final byte[] content, final int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK_SIZE; i++)
+            hash = hash * HASH_MULTIPLIER + content[i];
+        return hash;
+    }
+
+    private static int power() {
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++)
+            power *= HASH_MULTIPLIER;
+        return power;
+    }
+
+    private static boolean equals(final byte[] a, final int aOffset, final byte[] b, final int bOffset,
+                                  final int length) {
+        return Arrays.equals(a, aOffset, aOffset + length, b, bOffset, bOffset + length);
+    }
+
+    private static void writeCopy(final DataOutputStream out, final long offset, final int length)
+            throws IOException {
+        out.writeByte(OP_COPY);
+        out.writeLong(offset);
+        out.writeInt(length);
+    }
+
+    private static void writeInsert(final DataOutputStream out, final byte[] content, final int start,
+                                    final int end) throws IOException {
+        if (end <= start)
+            return;
+
+        out.writeByte(OP_INSERT);
+        out.writeInt(end - start);
+        out.write(content, start, end - start);
+    }
+}
@@ -3,19 +3,36 @@ package com.amazonaws.rp.nightswatch.builder.utils;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.*;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 public class S3 {
+    // the user metadata to record the SHA-256 digest of the object content, used to skip identical uploads
+    public final static String SHA256_METADATA_KEY = "sha256";
+    // the user metadata to record the MD5 digest of the object content, the one the job document refers to
+    public final static String MD5_METADATA_KEY = "md5";
+
+    private final S3MultipartUploader uploader = new S3MultipartUploader();
+    private final S3BucketPurger purger = new S3BucketPurger();
+    private final boolean dedupe = Boolean.parseBoolean(System.getProperty("nightswatch.s3.dedupe", "true"));
+
     public String getObjectPreSignedUrl(final Logger log, final String bucketName,
                                         final String objectName, final int expiredDays) {
-        AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
+        AmazonS3 s3Client = ClientRegistry.s3();
 
         Calendar c = Calendar.getInstance();
         c.setTime(new Date());  // now
@@ -28,58 +45,217 @@ public class S3 {
         return preSignedURL.toString();
     }
 
-    public String uploadFile(final Logger log, final String bucketName, final String filePath) {
+    public String uploadFile(final Logger log, final String bucketName, final String filePath) throws IOException {
         File file = new File(filePath);
 
+        String sha256 = null;
+        if (this.dedupe) {
+            try (InputStream in = new FileInputStream(file)) {
+                sha256 = DigestUtils.sha256Hex(in);
+            }
+        }
+
+        return this.upload(log, bucketName, file.getName(), sha256, metadata -> {
+            this.uploader.upload(log, bucketName, file.getName(), file, metadata);
+            return file.length();
+        });
+    }
+
+    /**
+     * Uploads the staged artifact with the digests computed when it was staged, the file is not read again
+     * to hash it. S3 verifies the content against the Content-MD5 of a single request upload, the parts of
+     * a multipart upload are verified by the SDK one by one.
+     */
+    public String uploadArtifact(final Logger log, final String bucketName,
+                                 final StagedArtifact artifact) throws IOException {
+        File file = artifact.getFile();
+
+        return this.upload(log, bucketName, file.getName(), artifact.getSha256Hex(), metadata -> {
+            if (file.length() != artifact.getSize())
+                throw new IOException(String.format("file %s is changed since it was staged, %d bytes expected",
+                        file.getName(), artifact.getSize()));
+
+            metadata.addUserMetadata(MD5_METADATA_KEY, artifact.getMd5Hex());
+            if (artifact.getSize() <= this.uploader.getPartSize())
+                // a multipart upload has no Content-MD5 of the whole object
+                metadata.setContentMD5(artifact.getContentMD5());
+
+            this.uploader.upload(log, bucketName, file.getName(), file, metadata);
+            return file.length();
+        });
+    }
+
+    /**
+     * Uploads the content built in memory, e.g. the credentials package, without a temporary file.
+     */
+    public String uploadBytes(final Logger log, final String bucketName, final String objectName,
+                              final byte[] content) {
+        String sha256 = DigestUtils.sha256Hex(content);
+
+        return this.upload(log, bucketName, objectName, sha256, metadata -> {
+            metadata.setContentLength(content.length);
+            ClientRegistry.s3().putObject(new PutObjectRequest(
+                    bucketName, objectName, new ByteArrayInputStream(content), metadata));
+            return content.length;
+        });
+    }
+
+    /**
+     * Streams the resource, e.g. a package in the jar, to the bucket without a temporary file.
+     */
+    public String uploadResource(final Logger log, final String bucketName, final String objectName,
+                                 final URL resource) throws IOException {
+        // one more streaming pass over the resource, no heap in proportion to its size
+        String sha256;
+        try (InputStream in = resource.openStream()) {
+            sha256 = DigestUtils.sha256Hex(in);
+        }
+
+        return this.upload(log, bucketName, objectName, sha256, metadata -> {
+            try (CountingInputStream in = new CountingInputStream(resource.openStream())) {
+                this.uploader.upload(log, bucketName, objectName, in, metadata);
+                return in.getByteCount();
+            }
+        });
+    }
+
+    /**
+     * Uploads the content unless the object in the bucket has the same SHA-256 digest already. The digest is
+     * recorded even without the dedupe when it is given, the setup script verifies the device files by it.
+     *
+     * @param sha256 the digest of the content, recorded in the object metadata, null to neither skip nor record
+     * @param upload uploads the content with the metadata, and returns the bytes uploaded
+     * @return the URL of the object
+     */
+    private <E extends Exception> String upload(final Logger log, final String bucketName, final String objectName,
+                                                final String sha256, final Upload<E> upload) throws E {
+        String url = String.format("https://s3.amazonaws.com/%s/%s", bucketName, objectName);
+
         try {
-            AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
+            if (this.dedupe && sha256 != null && sha256.equals(this.getObjectSHA256(bucketName, objectName))) {
+                Metrics.count("s3.upload.skipped");
+                log.info(String.format("file %s is unchanged in the bucket %s, upload skipped",
+                        objectName, bucketName));
 
-            log.debug("connected to AWS S3 service");
+                return url;
+            }
 
-            PutObjectRequest req = new PutObjectRequest(bucketName, file.getName(), file);
             ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentType("application/octet-stream");
+            if (sha256 != null)
+                metadata.addUserMetadata(SHA256_METADATA_KEY, sha256);
 
-            log.debug(String.format("uploading file %s to S3 bucket %s...", file.getName(), bucketName));
+            log.debug(String.format("uploading file %s to S3 bucket %s...", objectName, bucketName));
 
-            s3Client.putObject(req);
+            try (Metrics.Span span = Metrics.span("s3.upload")) {
+                span.bytes(upload.upload(metadata)).ok();
+            }
 
-            log.info(String.format("file %s has been uploaded to the bucket %s", file.getName(), bucketName));
+            log.info(String.format("file %s has been uploaded to the bucket %s", objectName, bucketName));
 
-            return String.format("https://s3.amazonaws.com/%s/%s", bucketName, file.getName());
+            return url;
         } catch (SdkClientException e) {
             e.printStackTrace();
-            log.error(String.format("failed to upload file %s to S3 bucket %s", file.getName(), bucketName));
+            log.error(String.format("failed to upload file %s to S3 bucket %s", objectName, bucketName));
             throw e;
         }
     }
 
-    public void emptyBucket(final Logger log, String bucketName) throws AmazonServiceException {
-        AmazonS3 s3Client = AmazonS3ClientBuilder.standard().build();
+    /**
+     * @return the metadata of the object, with the SHA-256 digest of the content uploaded by this class
+     */
+    public ObjectMetadata getObjectMetadata(final Logger log, final String bucketName, final String objectName) {
+        try (Metrics.Span span = Metrics.span("s3.head-object")) {
+            ObjectMetadata metadata = ClientRegistry.s3().getObjectMetadata(bucketName, objectName);
+            span.ok();
+            return metadata;
+        }
+    }
 
-        log.debug("connected to AWS S3 service");
+    /**
+     * @return the names of the objects under the prefix, listed a page of up to 1000 names a call
+     */
+    public Set<String> listObjectNames(final Logger log, final String bucketName, final String prefix) {
+        AmazonS3 s3Client = ClientRegistry.s3();
 
-        ListObjectsV2Request req = new ListObjectsV2Request().withBucketName(bucketName).withMaxKeys(10);
+        Set<String> names = new HashSet<>();
+        ListObjectsV2Request req = new ListObjectsV2Request()
+                .withBucketName(bucketName)
+                .withPrefix(prefix);
         ListObjectsV2Result result;
 
-        try {
-            do {
+        do {
+            try (Metrics.Span span = Metrics.span("s3.list-objects")) {
                 result = s3Client.listObjectsV2(req);
+                span.ok();
+            }
+
+            for (S3ObjectSummary summary : result.getObjectSummaries())
+                names.add(summary.getKey());
+
+            req.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+
+        log.debug(String.format("%d objects are found under %s in the bucket %s", names.size(), prefix, bucketName));
+
+        return names;
+    }
+
+    /**
+     * @return the content of the text object, null if it does not exist
+     */
+    public String downloadString(final Logger log, final String bucketName, final String objectName) {
+        AmazonS3 s3Client = ClientRegistry.s3();
+
+        try (Metrics.Span span = Metrics.span("s3.get-object")) {
+            try {
+                String content = s3Client.getObjectAsString(bucketName, objectName);
+                span.bytes(content.getBytes(StandardCharsets.UTF_8).length).ok();
+                return content;
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() != 404)
+                    throw e;
+                span.ok();
+
+                log.debug(String.format("file %s is not found in the bucket %s", objectName, bucketName));
+                return null;
+            }
+        }
+    }
+
+    private String getObjectSHA256(final String bucketName, final String objectName) {
+        AmazonS3 s3Client = ClientRegistry.s3();
+
+        try (Metrics.Span span = Metrics.span("s3.head-object")) {
+            try {
+                String sha256 = s3Client.getObjectMetadata(bucketName, objectName)
+                        .getUserMetaDataOf(SHA256_METADATA_KEY);
+                span.ok();
+                return sha256;
+            } catch (AmazonServiceException e) {
+                if (e.getStatusCode() != 404)
+                    throw e;
+                span.ok();
+                return null;
+            }
+        }
+    }
+
+    public void emptyBucket(final Logger log, String bucketName) throws AmazonServiceException {
+        try (Metrics.Span span = Metrics.span("s3.empty-bucket")) {
+            long deleted = this.purger.purge(log, bucketName);
+            Metrics.count("s3.deleted-objects", deleted);
+            span.ok();
 
-                for (S3ObjectSummary objSummary : result.getObjectSummaries()) {
-                    log.debug(String.format(
-                            "deleting file %s from the bucket %s ...", objSummary.getKey(), bucketName));
-                    s3Client.deleteObject(bucketName, objSummary.getKey());
-                }
-
-                // If there are more than maxKeys keys in the bucket, get a continuation token
-                // and list the next objects.
-                String token = result.getNextContinuationToken();
-                req.setContinuationToken(token);
-            } while (result.isTruncated());
+            log.debug(String.format("%d files are deleted from the bucket %s", deleted, bucketName));
         } catch (AmazonServiceException e) {
             if (!e.getMessage().contains("does not exist"))
                 throw e;
         }
     }
+
+    @FunctionalInterface
+    private interface Upload<E extends Exception> {
+        long upload(ObjectMetadata metadata) throws E;
+    }
 }
@@ -0,0 +1,174 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Empties a bucket page by page: each page of up to 1000 object versions is removed by one
+ * multi-object DeleteObjects request, pages are deleted concurrently with bounded parallelism.
+ * Old object versions, delete markers and unfinished multipart uploads are removed as well.
+ *
+ * The parallelism follows the system property nightswatch.s3.purge-threads (default 8).
+ */
+public class S3BucketPurger {
+    // the maximum keys of a DeleteObjects request and a ListVersions page
+    private final static int PAGE_SIZE = 1000;
+    private final static int DEFAULT_THREADS = 8;
+    private final static int DELETE_RETRIES = 3;
+
+    private final int threads;
+
+    public S3BucketPurger() {
+        this(Integer.getInteger("nightswatch.s3.purge-threads", DEFAULT_THREADS));
+    }
+
+    public S3BucketPurger(final int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid purge thread count %d", threads));
+
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of object versions deleted
+     */
+    public long purge(final Logger log, final String bucketName) throws AmazonServiceException {
+        AmazonS3 s3Client = ClientRegistry.s3();
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        // bounds the pages listed but not deleted yet
+        Semaphore inFlight = new Semaphore(this.threads * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        AtomicLong deleted = new AtomicLong();
+        List<String> failedKeys = new CopyOnWriteArrayList<>();
+
+        try {
+            ListVersionsRequest req = new ListVersionsRequest()
+                    .withBucketName(bucketName)
+                    .withMaxResults(PAGE_SIZE);
+            VersionListing listing;
+
+            do {
+                try (Metrics.Span span = Metrics.span("s3.list-versions")) {
+                    listing = s3Client.listVersions(req);
+                    span.ok();
+                }
+
+                List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>(listing.getVersionSummaries().size());
+                for (S3VersionSummary summary : listing.getVersionSummaries()) {
+                    String versionId = summary.getVersionId();
+                    // the "null" version of the objects put before versioning enabled is deleted explicitly,
+                    // a key only delete would just add a delete marker in a versioning enabled bucket
+                    if (versionId == null)
+                        keys.add(new DeleteObjectsRequest.KeyVersion(summary.getKey()));
+                    else
+                        keys.add(new DeleteObjectsRequest.KeyVersion(summary.getKey(), versionId));
+                }
+
+                if (!keys.isEmpty()) {
+                    inFlight.acquire();
+                    futures.add(executor.submit(() -> {
+                        try {
+                            this.deletePage(log, s3Client, bucketName, keys, deleted, failedKeys);
+                            return null;
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                }
+
+                req.setKeyMarker(listing.getNextKeyMarker());
+                req.setVersionIdMarker(listing.getNextVersionIdMarker());
+            } while (listing.isTruncated());
+
+            this.abortMultipartUploads(log, s3Client, bucketName, executor, futures);
+
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException(String.format("interrupted to empty the bucket %s", bucketName), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SdkClientException)
+                throw (SdkClientException) e.getCause();
+            throw new SdkClientException(String.format("failed to empty the bucket %s", bucketName), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failedKeys.isEmpty())
+            throw new SdkClientException(String.format("failed to delete %d objects from the bucket %s, e.g. %s",
+                    failedKeys.size(), bucketName, failedKeys.get(0)));
+
+        return deleted.get();
+    }
+
+    private void deletePage(final Logger log, final AmazonS3 s3Client, final String bucketName,
+                            final List<DeleteObjectsRequest.KeyVersion> keys,
+                            final AtomicLong deleted, final List<String> failedKeys) throws InterruptedException {
+        List<DeleteObjectsRequest.KeyVersion> pending = keys;
+
+        for (int attempt = 0; ; attempt++) {
+            log.debug(String.format("deleting %d objects from the bucket %s ...", pending.size(), bucketName));
+
+            try (Metrics.Span span = Metrics.span("s3.delete-objects")) {
+                // quiet mode, the response only lists the failed keys
+                s3Client.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(pending).withQuiet(true));
+                deleted.addAndGet(pending.size());
+                span.ok();
+                return;
+            } catch (MultiObjectDeleteException e) {
+                // partial failure, only the failed keys are retried
+                deleted.addAndGet(pending.size() - e.getErrors().size());
+
+                List<DeleteObjectsRequest.KeyVersion> failed = new ArrayList<>(e.getErrors().size());
+                for (MultiObjectDeleteException.DeleteError error : e.getErrors())
+                    failed.add(new DeleteObjectsRequest.KeyVersion(error.getKey(), error.getVersionId()));
+
+                if (attempt >= DELETE_RETRIES) {
+                    for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                        log.warn(String.format("failed to delete file %s from the bucket %s: %s",
+                                error.getKey(), bucketName, error.getMessage()));
+                        failedKeys.add(error.getKey());
+                    }
+                    return;
+                }
+
+                pending = failed;
+                Metrics.count("s3.delete-objects.retries");
+            }
+
+            Thread.sleep(500L * (attempt + 1));
+        }
+    }
+
+    private void abortMultipartUploads(final Logger log, final AmazonS3 s3Client, final String bucketName,
+                                       final ExecutorService executor, final List<Future<?>> futures) {
+        ListMultipartUploadsRequest req = new ListMultipartUploadsRequest(bucketName).withMaxUploads(PAGE_SIZE);
+        MultipartUploadListing listing;
+
+        do {
+            listing = s3Client.listMultipartUploads(req);
+
+            for (MultipartUpload upload : listing.getMultipartUploads()) {
+                futures.add(executor.submit(() -> {
+                    log.debug(String.format("aborting unfinished upload of file %s in the bucket %s ...",
+                            upload.getKey(), bucketName));
+                    s3Client.abortMultipartUpload(
+                            new AbortMultipartUploadRequest(bucketName, upload.getKey(), upload.getUploadId()));
+                }));
+            }
+
+            req.setKeyMarker(listing.getNextKeyMarker());
+            req.setUploadIdMarker(listing.getNextUploadIdMarker());
+        } while (listing.isTruncated());
+    }
+}
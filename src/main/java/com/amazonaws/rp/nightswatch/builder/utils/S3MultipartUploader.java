@@ -0,0 +1,254 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Uploads a file to S3 in parts concurrently, each part is retried on its own,
+ * so a network blip only costs the part in flight instead of the whole file.
+ *
+ * The part size, thread count and retry count follow the system properties
+ * nightswatch.s3.part-size-mb (default 8), nightswatch.s3.upload-threads (default 4)
+ * and nightswatch.s3.part-retries (default 3).
+ */
+public class S3MultipartUploader {
+    // S3 rejects parts smaller than 5 MB except the last one
+    public final static long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+    private final static long DEFAULT_PART_SIZE_MB = 8;
+    private final static int DEFAULT_THREADS = 4;
+    private final static int DEFAULT_PART_RETRIES = 3;
+
+    private final long partSize;
+    private final int threads;
+    private final int partRetries;
+
+    public S3MultipartUploader() {
+        this(Long.getLong("nightswatch.s3.part-size-mb", DEFAULT_PART_SIZE_MB) * 1024 * 1024,
+                Integer.getInteger("nightswatch.s3.upload-threads", DEFAULT_THREADS),
+                Integer.getInteger("nightswatch.s3.part-retries", DEFAULT_PART_RETRIES));
+    }
+
+    public S3MultipartUploader(final long partSize, final int threads, final int partRetries) {
+        if (partSize < MIN_PART_SIZE)
+            throw new IllegalArgumentException(String.format(
+                    "part size %d is less than the minimum %d bytes", partSize, MIN_PART_SIZE));
+        if (threads < 1)
+            throw new IllegalArgumentException(String.format("invalid upload thread count %d", threads));
+
+        this.partSize = partSize;
+        this.threads = threads;
+        this.partRetries = Math.max(0, partRetries);
+    }
+
+    public long getPartSize() {
+        return this.partSize;
+    }
+
+    public void upload(final Logger log, final String bucketName, final String objectName,
+                       final File file, final ObjectMetadata metadata) throws SdkClientException {
+        AmazonS3 s3Client = ClientRegistry.s3();
+
+        long fileSize = file.length();
+        if (fileSize <= this.partSize) {
+            // not worth to split
+            s3Client.putObject(new PutObjectRequest(bucketName, objectName, file).withMetadata(metadata));
+            return;
+        }
+
+        InitiateMultipartUploadResult initResult = s3Client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, objectName, metadata));
+        String uploadId = initResult.getUploadId();
+
+        int partCount = (int) ((fileSize + this.partSize - 1) / this.partSize);
+
+        log.debug(String.format("uploading file %s to S3 bucket %s in %d parts with %d threads ...",
+                file.getName(), bucketName, partCount, this.threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.threads, partCount));
+        try {
+            List<Future<PartETag>> futures = new ArrayList<>(partCount);
+
+            for (int i = 0; i < partCount; i++) {
+                long offset = i * this.partSize;
+                UploadPartRequest req = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(objectName)
+                        .withUploadId(uploadId)
+                        .withPartNumber(i + 1)
+                        .withFile(file)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(this.partSize, fileSize - offset))
+                        .withLastPart(i == partCount - 1);
+
+                futures.add(executor.submit(() -> this.uploadPart(log, s3Client, () -> req)));
+            }
+
+            List<PartETag> partETags = new ArrayList<>(partCount);
+            for (Future<PartETag> future : futures)
+                partETags.add(future.get());
+            partETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+
+            s3Client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, objectName, uploadId, partETags));
+        } catch (InterruptedException | ExecutionException e) {
+            this.abort(log, s3Client, bucketName, objectName, uploadId);
+
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof SdkClientException)
+                throw (SdkClientException) cause;
+            throw new SdkClientException(String.format(
+                    "failed to upload file %s to S3 bucket %s", file.getName(), bucketName), cause);
+        } catch (SdkClientException e) {
+            this.abort(log, s3Client, bucketName, objectName, uploadId);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Uploads the stream of unknown length, e.g. a resource in the jar, without a temporary file.
+     * The parts are buffered in the heap, the buffers in use are bounded by the thread count.
+     */
+    public void upload(final Logger log, final String bucketName, final String objectName,
+                       final InputStream in, final ObjectMetadata metadata) throws IOException, SdkClientException {
+        AmazonS3 s3Client = ClientRegistry.s3();
+
+        byte[] buffer = new byte[(int) this.partSize];
+        int length = in.readNBytes(buffer, 0, buffer.length);
+        if (length < buffer.length) {
+            // not worth to split
+            metadata.setContentLength(length);
+            s3Client.putObject(new PutObjectRequest(bucketName, objectName,
+                    new ByteArrayInputStream(buffer, 0, length), metadata));
+            return;
+        }
+
+        InitiateMultipartUploadResult initResult = s3Client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, objectName, metadata));
+        String uploadId = initResult.getUploadId();
+
+        log.debug(String.format("uploading stream %s to S3 bucket %s in parts with %d threads ...",
+                objectName, bucketName, this.threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        // bounds the part buffers in the heap
+        Semaphore buffers = new Semaphore(this.threads + 1);
+        try {
+            List<Future<PartETag>> futures = new ArrayList<>();
+
+            for (int partNumber = 1; length > 0; partNumber++) {
+                byte[] part = buffer;
+                int partLength = length;
+                int number = partNumber;
+
+                futures.add(executor.submit(() -> {
+                    try {
+                        return this.uploadPart(log, s3Client, () -> new UploadPartRequest()
+                                .withBucketName(bucketName)
+                                .withKey(objectName)
+                                .withUploadId(uploadId)
+                                .withPartNumber(number)
+                                .withInputStream(new ByteArrayInputStream(part, 0, partLength))
+                                .withPartSize(partLength));
+                    } finally {
+                        buffers.release();
+                    }
+                }));
+
+                buffers.acquire();
+                buffer = new byte[(int) this.partSize];
+                length = in.readNBytes(buffer, 0, buffer.length);
+            }
+
+            List<PartETag> partETags = new ArrayList<>(futures.size());
+            for (Future<PartETag> future : futures)
+                partETags.add(future.get());
+            partETags.sort(Comparator.comparingInt(PartETag::getPartNumber));
+
+            s3Client.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(bucketName, objectName, uploadId, partETags));
+        } catch (InterruptedException | ExecutionException e) {
+            this.abort(log, s3Client, bucketName, objectName, uploadId);
+
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (cause instanceof SdkClientException)
+                throw (SdkClientException) cause;
+            throw new SdkClientException(String.format(
+                    "failed to upload stream %s to S3 bucket %s", objectName, bucketName), cause);
+        } catch (IOException | SdkClientException e) {
+            this.abort(log, s3Client, bucketName, objectName, uploadId);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private PartETag uploadPart(final Logger log, final AmazonS3 s3Client,
+                                final Supplier<UploadPartRequest> reqSupplier) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            // a new request each attempt, the stream of the part is consumed by the failed one
+            UploadPartRequest req = reqSupplier.get();
+            try (Metrics.Span span = Metrics.span("s3.upload-part").bytes(req.getPartSize())) {
+                PartETag partETag = s3Client.uploadPart(req).getPartETag();
+                span.ok();
+                return partETag;
+            } catch (SdkClientException e) {
+                if (attempt >= this.partRetries || !isRetryable(e))
+                    throw e;
+
+                Metrics.count("s3.upload-part.retries");
+
+                log.debug(String.format("failed to upload part %d of %s, retry %d/%d: %s",
+                        req.getPartNumber(), req.getKey(), attempt + 1, this.partRetries, e.getMessage()));
+
+                // linear back off, the SDK already retries the transient failures at request level
+                Thread.sleep(1000L * (attempt + 1));
+            }
+        }
+    }
+
+    /**
+     * The service errors of the request itself, e.g. access denied or the upload aborted already, fail at once,
+     * only the server side errors, the throttling and the client side errors like a broken connection are retried.
+     */
+    private static boolean isRetryable(final SdkClientException e) {
+        if (!(e instanceof AmazonServiceException))
+            return e.isRetryable();
+
+        AmazonServiceException serviceException = (AmazonServiceException) e;
+        return serviceException.getStatusCode() >= 500 || RetryUtils.isThrottlingException(serviceException) ||
+                RetryUtils.isRetryableServiceException(serviceException);
+    }
+
+    private void abort(final Logger log, final AmazonS3 s3Client, final String bucketName,
+                       final String objectName, final String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, objectName, uploadId));
+        } catch (SdkClientException e) {
+            log.warn(String.format("failed to abort multipart upload %s of %s, ignored: %s",
+                    uploadId, objectName, e.getMessage()));
+        }
+    }
+}
@@ -1,40 +1,282 @@
 package com.amazonaws.rp.nightswatch.builder.utils;
 
 import com.amazonaws.services.cloudformation.AmazonCloudFormation;
-import com.amazonaws.services.cloudformation.AmazonCloudFormationClientBuilder;
 import com.amazonaws.services.cloudformation.model.*;
 import org.slf4j.Logger;
 
+import java.io.*;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class StackOutputQuerier {
+    // shared by all querier instances, the outputs of a stack are loaded once per process
+    private final static Map<String, StackOutputs> CACHE = new ConcurrentHashMap<>();
+    // stack name -> when the outputs in memory are known up to date, a long running process checks them again
+    private final static Map<String, Long> VALIDATED = new ConcurrentHashMap<>();
+    private final static long MEMORY_TTL_MILLIS =
+            Long.getLong("nightswatch.stack-outputs.memory-ttl-seconds", 60) * 1000;
+
+    private final static String CACHE_TTL_PROPERTY = "nightswatch.stack-outputs.cache-ttl-seconds";
+    private final static long DEFAULT_CACHE_TTL_SECONDS = 3600;
+
+    private final File cacheDir;
+    private final long cacheTTLMillis;
+
+    public StackOutputQuerier() {
+        this(new File(String.format("%s/target/stack-outputs", System.getProperty("user.dir"))),
+                Long.getLong(CACHE_TTL_PROPERTY, DEFAULT_CACHE_TTL_SECONDS) * 1000);
+    }
+
+    /**
+     * @param cacheDir       the directory to keep the outputs on disk, null to use the in-memory cache only
+     * @param cacheTTLMillis how long the outputs on disk are trusted, zero or negative to disable the disk cache
+     */
+    public StackOutputQuerier(final File cacheDir, final long cacheTTLMillis) {
+        this.cacheDir = cacheDir;
+        this.cacheTTLMillis = cacheTTLMillis;
+    }
+
     public String query(final Logger log, String stackName, String outputKey) throws AmazonCloudFormationException {
-        AmazonCloudFormation client = AmazonCloudFormationClientBuilder.defaultClient();
+        Map<String, String> outputs = this.queryAll(log, stackName);
+        if (outputs == null)
+            return null;
+
+        return outputs.get(outputKey);
+    }
+
+    /**
+     * Returns all outputs of the stack, or null if the stack is not found in CREATE_COMPLETE
+     * or UPDATE_COMPLETE status. The outputs are cached until the stack's LastUpdatedTime changes.
+     */
+    public Map<String, String> queryAll(final Logger log, String stackName) throws AmazonCloudFormationException {
+        StackOutputs cached = CACHE.get(stackName);
+        if (cached != null && isValidated(stackName)) {
+            Metrics.count("cloudformation.stack-outputs.memory-hits");
+            return cached.outputs;
+        }
 
-        log.debug("connected to AWS CloudFormation service");
+        synchronized (CACHE) {
+            cached = CACHE.get(stackName);
+            if (cached != null && isValidated(stackName)) {
+                Metrics.count("cloudformation.stack-outputs.memory-hits");
+                return cached.outputs;
+            }
 
-        ListStacksRequest listStacksReq = new ListStacksRequest();
-        listStacksReq.setStackStatusFilters(Arrays.asList("CREATE_COMPLETE", "UPDATE_COMPLETE"));
+            AmazonCloudFormation client = ClientRegistry.cloudFormation();
 
-        ListStacksResult listStacksResult = client.listStacks(listStacksReq);
-        for (StackSummary stackSummary : listStacksResult.getStackSummaries()) {
-            if (stackSummary.getStackName().equals(stackName)) {
-                DescribeStacksRequest req = new DescribeStacksRequest();
-                req.setStackName(stackName);
+            log.debug("connected to AWS CloudFormation service");
 
-                DescribeStacksResult result = client.describeStacks(req);
-                List<Stack> stacks = result.getStacks();
+            StackSummary stackSummary = this.findStack(client, stackName);
+            if (stackSummary == null) {
+                // e.g. destroyed while the process is running
+                CACHE.remove(stackName);
+                VALIDATED.remove(stackName);
+                return null;
+            }
 
-                List<Output> outputs = stacks.get(0).getOutputs();
+            long lastUpdatedTime = lastUpdatedTime(stackSummary);
 
-                for (Output output : outputs) {
-                    if (output.getOutputKey().equals(outputKey))
-                        return output.getOutputValue();
-                }
+            if (cached != null && cached.lastUpdatedTime == lastUpdatedTime) {
+                Metrics.count("cloudformation.stack-outputs.revalidated");
+                VALIDATED.put(stackName, System.currentTimeMillis());
+                return cached.outputs;
+            }
+
+            cached = this.loadFromDisk(log, stackName, lastUpdatedTime);
+            if (cached == null) {
+                Metrics.count("cloudformation.stack-outputs.misses");
+                cached = this.describe(client, stackName, lastUpdatedTime);
+                this.saveToDisk(log, stackName, cached);
             }
+
+            CACHE.put(stackName, cached);
+            VALIDATED.put(stackName, System.currentTimeMillis());
+
+            return cached.outputs;
         }
+    }
+
+    /**
+     * Drops the in-memory and on-disk outputs of the stack, e.g. after the stack is deployed again.
+     */
+    public void invalidate(final String stackName) {
+        CACHE.remove(stackName);
+        VALIDATED.remove(stackName);
+
+        File cacheFile = this.cacheFile(stackName);
+        if (cacheFile != null && cacheFile.exists() && !cacheFile.delete())
+            cacheFile.deleteOnExit();
+    }
+
+    private StackSummary findStack(final AmazonCloudFormation client, final String stackName) {
+        ListStacksRequest req = new ListStacksRequest();
+        req.setStackStatusFilters(Arrays.asList("CREATE_COMPLETE", "UPDATE_COMPLETE"));
+
+        ListStacksResult result;
+        do {
+            try (Metrics.Span span = Metrics.span("cloudformation.list-stacks")) {
+                result = client.listStacks(req);
+                span.ok();
+            }
+
+            for (StackSummary stackSummary : result.getStackSummaries()) {
+                if (stackSummary.getStackName().equals(stackName))
+                    return stackSummary;
+            }
+
+            req.setNextToken(result.getNextToken());
+        } while (result.getNextToken() != null);
 
         return null;
     }
+
+    private StackOutputs describe(final AmazonCloudFormation client, final String stackName,
+                                  final long lastUpdatedTime) {
+        DescribeStacksRequest req = new DescribeStacksRequest();
+        req.setStackName(stackName);
+
+        DescribeStacksResult result;
+        try (Metrics.Span span = Metrics.span("cloudformation.describe-stacks")) {
+            result = client.describeStacks(req);
+            span.ok();
+        }
+        List<Stack> stacks = result.getStacks();
+
+        return new StackOutputs(parseOutputs(stacks.get(0).getOutputs()),
+                lastUpdatedTime, System.currentTimeMillis());
+    }
+
+    public static Map<String, String> parseOutputs(final List<Output> outputs) {
+        Map<String, String> result = new HashMap<>();
+
+        if (outputs != null) {
+            for (Output output : outputs)
+                result.put(output.getOutputKey(), output.getOutputValue());
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static boolean isValidated(final String stackName) {
+        Long validated = VALIDATED.get(stackName);
+        return validated != null && System.currentTimeMillis() - validated <= MEMORY_TTL_MILLIS;
+    }
+
+    private static long lastUpdatedTime(final StackSummary stackSummary) {
+        // a stack never updated has no LastUpdatedTime
+        Date time = stackSummary.getLastUpdatedTime();
+        if (time == null)
+            time = stackSummary.getCreationTime();
+
+        return time == null ? 0 : time.getTime();
+    }
+
+    private File cacheFile(final String stackName) {
+        if (this.cacheDir == null || this.cacheTTLMillis <= 0)
+            return null;
+
+        return new File(this.cacheDir, String.format("%s.properties", stackName));
+    }
+
+    private StackOutputs loadFromDisk(final Logger log, final String stackName, final long lastUpdatedTime) {
+        File cacheFile = this.cacheFile(stackName);
+        if (cacheFile == null || !cacheFile.exists())
+            return null;
+
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            props.load(in);
+        } catch (IOException e) {
+            log.debug(String.format("failed to load cached outputs of the stack %s, ignored: %s",
+                    stackName, e.getMessage()));
+            return null;
+        }
+
+        StackOutputs cached = StackOutputs.fromProperties(props);
+        if (cached == null)
+            return null;
+
+        if (cached.lastUpdatedTime != lastUpdatedTime) {
+            log.debug(String.format("the stack %s is updated, cached outputs are dropped", stackName));
+            return null;
+        }
+
+        if (System.currentTimeMillis() - cached.loadedTime > this.cacheTTLMillis) {
+            log.debug(String.format("cached outputs of the stack %s are expired", stackName));
+            return null;
+        }
+
+        log.debug(String.format("outputs of the stack %s are loaded from %s", stackName, cacheFile));
+        Metrics.count("cloudformation.stack-outputs.disk-hits");
+
+        return cached;
+    }
+
+    private void saveToDisk(final Logger log, final String stackName, final StackOutputs outputs) {
+        File cacheFile = this.cacheFile(stackName);
+        if (cacheFile == null)
+            return;
+
+        if (!this.cacheDir.exists() && !this.cacheDir.mkdirs()) {
+            log.debug(String.format("failed to create stack outputs cache directory at %s, ignored", this.cacheDir));
+            return;
+        }
+
+        try (OutputStream out = new FileOutputStream(cacheFile)) {
+            outputs.toProperties().store(out, String.format("outputs of the stack %s", stackName));
+        } catch (IOException e) {
+            log.debug(String.format("failed to cache outputs of the stack %s, ignored: %s",
+                    stackName, e.getMessage()));
+        }
+    }
+
+    private static class StackOutputs {
+        private final static String OUTPUT_KEY_PREFIX = "output.";
+        private final static String LAST_UPDATED_TIME_KEY = "lastUpdatedTime";
+        private final static String LOADED_TIME_KEY = "loadedTime";
+
+        private final Map<String, String> outputs;
+        private final long lastUpdatedTime;
+        private final long loadedTime;
+
+        private StackOutputs(final Map<String, String> outputs, final long lastUpdatedTime, final long loadedTime) {
+            this.outputs = outputs;
+            this.lastUpdatedTime = lastUpdatedTime;
+            this.loadedTime = loadedTime;
+        }
+
+        private Properties toProperties() {
+            Properties props = new Properties();
+            props.setProperty(LAST_UPDATED_TIME_KEY, Long.toString(this.lastUpdatedTime));
+            props.setProperty(LOADED_TIME_KEY, Long.toString(this.loadedTime));
+            for (Map.Entry<String, String> output : this.outputs.entrySet())
+                props.setProperty(OUTPUT_KEY_PREFIX + output.getKey(), output.getValue());
+
+            return props;
+        }
+
+        private static StackOutputs fromProperties(final Properties props) {
+            try {
+                long lastUpdatedTime = Long.parseLong(props.getProperty(LAST_UPDATED_TIME_KEY));
+                long loadedTime = Long.parseLong(props.getProperty(LOADED_TIME_KEY));
+
+                Map<String, String> outputs = new HashMap<>();
+                for (String name : props.stringPropertyNames()) {
+                    if (name.startsWith(OUTPUT_KEY_PREFIX))
+                        outputs.put(name.substring(OUTPUT_KEY_PREFIX.length()), props.getProperty(name));
+                }
+
+                return new StackOutputs(Collections.unmodifiableMap(outputs), lastUpdatedTime, loadedTime);
+            } catch (NumberFormatException e) {
+                // broken cache file
+                return null;
+            }
+        }
+    }
 }
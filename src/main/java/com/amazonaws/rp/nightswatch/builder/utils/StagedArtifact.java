@@ -0,0 +1,46 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import java.io.File;
+
+/**
+ * The artifact staged on the local file system, with the digests computed while it was copied.
+ */
+public class StagedArtifact {
+    private final File file;
+    private final long size;
+    private final String md5Hex;
+    private final String sha256Hex;
+    private final String contentMD5;
+
+    public StagedArtifact(final File file, final long size, final String md5Hex,
+                          final String sha256Hex, final String contentMD5) {
+        this.file = file;
+        this.size = size;
+        this.md5Hex = md5Hex;
+        this.sha256Hex = sha256Hex;
+        this.contentMD5 = contentMD5;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public String getMd5Hex() {
+        return this.md5Hex;
+    }
+
+    public String getSha256Hex() {
+        return this.sha256Hex;
+    }
+
+    /**
+     * @return the base64 encoded MD5 digest, as the Content-MD5 header of S3
+     */
+    public String getContentMD5() {
+        return this.contentMD5;
+    }
+}
@@ -1,43 +1,279 @@
 #!/usr/bin/python3
 # -*- coding: utf-8 -*-
 
+import hashlib
 import os
+import shutil
 import sys
+import tarfile
+import threading
+import time
+import urllib.request
+import zipfile
+from concurrent.futures import ThreadPoolExecutor
 
 
-# both two will be injected by Night's Watch - Builder, DON"T edit manually.
+# all of them will be injected by Night's Watch - Builder, DON"T edit manually.
 credentials_pkg_url = "<CREDENTIALS_PACKAGE_URL>"
+credentials_pkg_sha256 = "<CREDENTIALS_PACKAGE_SHA256>"
+credentials_pkg_size = int("<CREDENTIALS_PACKAGE_SIZE>")
 nw_ranger_pkg_url = "<NW_RANGER_PACKAGE_URL>"
+nw_ranger_pkg_sha256 = "<NW_RANGER_PACKAGE_SHA256>"
+nw_ranger_pkg_size = int("<NW_RANGER_PACKAGE_SIZE>")
 
-# step1, download asset
-
-credentials_pkg_path = "/tmp/credentials.zip"
-nw_ranger_pkg_path = "/tmp/nightswatch-ranger.tar.gz"
+# kept across reboots, an interrupted download is resumed from the ranges done
+download_dir = "/var/tmp/nightswatch-setup"
 nw_ranger_home = "/opt/nightswatch-ranger"
 
-# download device root CA, certificates and keys
-rc = os.system("curl -o %s -fs '%s'" % (credentials_pkg_path, credentials_pkg_url))
-if 0 != rc:
-    sys.exit(rc)
+chunk_size = 4 * 1024 * 1024
+download_threads = 4
+retries = 5
+timeout_seconds = 30
+
+
+class RangedDownload:
+    """Downloads a file in ranges concurrently, each range is retried and resumed from the bytes received.
+
+    The ranges done are recorded next to the file, so a new run only fetches the missing ones.
+    """
+
+    def __init__(self, url, path, size, sha256):
+        self.url = url
+        self.path = path
+        self.size = size
+        self.sha256 = sha256
+        self.chunks = max(1, (size + chunk_size - 1) // chunk_size)
+        self.done = set()
+        self.error = None
+        self.cond = threading.Condition()
+        self.futures = []
+        self.stopped = False
+
+        # a new package is never resumed from the ranges of the old one
+        state_path = "%s.%s.ranges" % (path, sha256[:16])
+        self.state_path = state_path
+        if os.path.exists(path) and os.path.getsize(path) == size and os.path.exists(state_path):
+            with open(state_path) as state:
+                self.done = set(int(line) for line in state if line.strip())
+        else:
+            with open(path, "wb") as f:
+                f.truncate(size)
+            open(state_path, "w").close()
+
+        self.fd = os.open(path, os.O_RDWR)
+        self.state = open(state_path, "a")
+
+    def start(self, pool):
+        for chunk in range(self.chunks):
+            if chunk not in self.done:
+                self.futures.append(pool.submit(self._fetch, chunk))
+
+    def stop(self):
+        # the ranges not started are cancelled, the ones in flight end at the next read
+        self.stopped = True
+        for future in self.futures:
+            future.cancel()
+
+    def _fetch(self, chunk):
+        start = chunk * chunk_size
+        end = min(self.size, start + chunk_size) - 1
+        pos = start
+
+        for attempt in range(retries + 1):
+            if self.stopped:
+                return
+            try:
+                req = urllib.request.Request(self.url, headers={"Range": "bytes=%d-%d" % (pos, end)})
+                with urllib.request.urlopen(req, timeout=timeout_seconds) as resp:
+                    if resp.status != 206 and not (resp.status == 200 and pos == 0 and end == self.size - 1):
+                        raise IOError("unexpected HTTP status %d for range %d-%d" % (resp.status, pos, end))
+                    while pos <= end:
+                        if self.stopped:
+                            return
+                        data = resp.read(min(65536, end - pos + 1))
+                        if not data:
+                            raise IOError("connection closed at %d of range %d-%d" % (pos, start, end))
+                        os.pwrite(self.fd, data, pos)
+                        pos += len(data)
+                break
+            except Exception as e:
+                if attempt >= retries:
+                    self._fail("failed to download %s range %d-%d: %s" % (self.path, start, end, e))
+                    return
+                print("retry %d/%d to download %s range %d-%d: %s" % (attempt + 1, retries, self.path, pos, end, e))
+                time.sleep(min(30, 2 ** attempt))
+
+        with self.cond:
+            self.state.write("%d\n" % chunk)
+            self.state.flush()
+            self.done.add(chunk)
+            self.cond.notify_all()
+
+    def _fail(self, error):
+        with self.cond:
+            self.error = error
+            self.cond.notify_all()
+
+    def wait(self, chunk):
+        with self.cond:
+            while chunk not in self.done:
+                if self.error is not None:
+                    raise IOError(self.error)
+                self.cond.wait()
+
+    def open(self):
+        return SequentialReader(self)
+
+    def verify(self):
+        reader = self.open()
+        while reader.read(1024 * 1024):
+            pass
+        reader.verify()
+
+    def discard(self):
+        os.close(self.fd)
+        self.state.close()
+        for path in (self.path, self.state_path):
+            if os.path.exists(path):
+                os.remove(path)
+
+
+class DigestError(IOError):
+    def __init__(self, download):
+        IOError.__init__(self, "the digest of %s mismatches, it is downloaded again next time" % download.path)
+        self.download = download
+
+
+class SequentialReader:
+    """Reads the file from the start as soon as the ranges arrive, hashing what is read."""
+
+    def __init__(self, download):
+        self.download = download
+        self.pos = 0
+        self.hash = hashlib.sha256()
+
+    def read(self, n=-1):
+        remaining = self.download.size - self.pos
+        if n < 0 or n > remaining:
+            n = remaining
+        if n == 0:
+            return b""
 
-# download Night's Watch - Ranger package
-rc = os.system("curl -o %s -fs '%s'" % (nw_ranger_pkg_path, nw_ranger_pkg_url))
-if 0 != rc:
-    sys.exit(rc)
+        # within a range, which is either done or not
+        n = min(n, chunk_size - self.pos % chunk_size)
+        self.download.wait(self.pos // chunk_size)
 
-# step2, install asset
+        data = os.pread(self.download.fd, n, self.pos)
+        self.pos += len(data)
+        self.hash.update(data)
+        return data
 
-# un-package Night's Watch - Ranger package
-rc = os.system("tar zxf %s --no-same-owner -C /opt" % nw_ranger_pkg_path)
-if 0 != rc:
-    sys.exit(rc)
+    def verify(self):
+        if self.pos != self.download.size or self.hash.hexdigest() != self.download.sha256:
+            raise DigestError(self.download)
+
+
+def check_member(member, dst):
+    # extracted before the digest is verified, so nothing may be written or linked outside of the directory.
+    # the paths are resolved against the members extracted so far, a link extracted before may redirect them
+    root = os.path.realpath(dst)
+
+    def inside(path):
+        return os.path.commonpath([root, os.path.realpath(path)]) == root
+
+    name = os.path.normpath(member.name)
+    if os.path.isabs(name) or name.startswith("..") or not inside(os.path.join(dst, name)):
+        raise IOError("invalid path %s in the package" % member.name)
+
+    if member.issym():
+        # relative to the directory of the link
+        target = os.path.join(dst, os.path.dirname(name), member.linkname)
+    elif member.islnk():
+        # relative to the root of the package
+        target = os.path.join(dst, member.linkname)
+    elif member.isfile() or member.isdir():
+        return
+    else:
+        raise IOError("invalid type of %s in the package, e.g. a device or a FIFO" % member.name)
+
+    if os.path.isabs(member.linkname) or not inside(target):
+        raise IOError("invalid link %s -> %s in the package" % (member.name, member.linkname))
+
+
+def extract(reader, dst):
+    # the extraction filter rejects the unsafe members as well, on the interpreters which provide it
+    options = {"filter": "data"} if hasattr(tarfile, "data_filter") else {}
+
+    # stream mode, the members are extracted in the order of the ranges downloaded
+    with tarfile.open(fileobj=reader, mode="r|gz") as tar:
+        for member in tar:
+            check_member(member, dst)
+            # same as `tar --no-same-owner`
+            member.uid, member.gid, member.uname, member.gname = os.getuid(), os.getgid(), "", ""
+            tar.extract(member, dst, **options)
+
+    # the rest of the gzip stream, for the digest
+    while reader.read(1024 * 1024):
+        pass
+    reader.verify()
+
+
+def merge(src, dst):
+    # overlays the new files on the installed ones, the others (e.g. the deployed applications) are kept
+    for root, dirs, files in os.walk(src):
+        target = os.path.join(dst, os.path.relpath(root, src))
+        os.makedirs(target, exist_ok=True)
+        links = [d for d in dirs if os.path.islink(os.path.join(root, d))]
+        dirs[:] = [d for d in dirs if d not in links]
+        for f in files + links:
+            os.replace(os.path.join(root, f), os.path.join(target, f))
+
+
+# step1, download and install asset
+
+os.makedirs(download_dir, exist_ok=True)
+
+credentials = RangedDownload(credentials_pkg_url, os.path.join(download_dir, "credentials.zip"),
+                             credentials_pkg_size, credentials_pkg_sha256)
+nw_ranger = RangedDownload(nw_ranger_pkg_url, os.path.join(download_dir, "nightswatch-ranger.tar.gz"),
+                           nw_ranger_pkg_size, nw_ranger_pkg_sha256)
+
+staging_dir = os.path.join(download_dir, "extracted")
+shutil.rmtree(staging_dir, ignore_errors=True)
+
+failure = None
+with ThreadPoolExecutor(max_workers=download_threads) as pool:
+    credentials.start(pool)
+    nw_ranger.start(pool)
+
+    try:
+        # un-package Night's Watch - Ranger package while it is downloading, verified before installed
+        extract(nw_ranger.open(), staging_dir)
+        credentials.verify()
+    except Exception as e:
+        print(e)
+        failure = e
+        credentials.stop()
+        nw_ranger.stop()
+
+# the pool is shut down here, no worker writes to the files any more,
+# the ranges recorded are resumed by the next run
+if isinstance(failure, DigestError):
+    failure.download.discard()
+if failure is not None:
+    sys.exit(1)
+
+merge(staging_dir, os.path.dirname(nw_ranger_home))
 
 # copy device root CA, certificates and keys
-rc = os.system("unzip -o %s -d %s/certs/p1" % (credentials_pkg_path, nw_ranger_home))
-if 0 != rc:
-    sys.exit(rc)
+with zipfile.ZipFile(credentials.path) as zf:
+    zf.extractall(os.path.join(nw_ranger_home, "certs/p1"))
+
+credentials.discard()
+nw_ranger.discard()
+shutil.rmtree(download_dir, ignore_errors=True)
 
-# step3, launch Ranger daemon
+# step2, launch Ranger daemon
 
 bin = "%s/ranger" % nw_ranger_home
 os.execl(bin, bin)
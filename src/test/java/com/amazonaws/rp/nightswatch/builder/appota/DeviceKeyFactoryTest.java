@@ -0,0 +1,179 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class DeviceKeyFactoryTest {
+    // ecdsa-with-SHA256 and sha256WithRSAEncryption
+    private final static byte[] ECDSA_SHA256_OID = {0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x04, 0x03, 0x02};
+    private final static byte[] RSA_SHA256_OID = {0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01,
+            0x01, 0x0b};
+    // commonName
+    private final static byte[] CN_OID = {0x55, 0x04, 0x03};
+
+    @Test
+    public void ecCsrVerified() throws GeneralSecurityException {
+        assertCsrVerified(DeviceKeyFactory.Algorithm.EC_P256, "EC", "SHA256withECDSA", ECDSA_SHA256_OID);
+    }
+
+    @Test
+    public void rsaCsrVerified() throws GeneralSecurityException {
+        assertCsrVerified(DeviceKeyFactory.Algorithm.RSA_2048, "RSA", "SHA256withRSA", RSA_SHA256_OID);
+    }
+
+    @Test
+    public void pooledIdentitiesUnique() throws InterruptedException {
+        List<String> names = Arrays.asList("nw-app-ota-demo-dev-00001", "nw-app-ota-demo-dev-00002",
+                "nw-app-ota-demo-dev-00003", "nw-app-ota-demo-dev-00004");
+
+        Map<String, DeviceKeyFactory.DeviceIdentity> identities = new ConcurrentHashMap<>();
+        new DeviceKeyFactory(DeviceKeyFactory.Algorithm.EC_P256).generate(names, 2,
+                identity -> identities.put(identity.getCommonName(), identity));
+
+        assertEquals(new HashSet<>(names), identities.keySet());
+
+        Set<String> privateKeys = new HashSet<>();
+        for (DeviceKeyFactory.DeviceIdentity identity : identities.values())
+            privateKeys.add(identity.getPrivateKeyPem());
+        assertEquals(names.size(), privateKeys.size());
+    }
+
+    private static void assertCsrVerified(final DeviceKeyFactory.Algorithm algorithm, final String keyAlgorithm,
+                                          final String signatureAlgorithm, final byte[] signatureOid)
+            throws GeneralSecurityException {
+        String commonName = "nw-app-ota-demo-dev-00001";
+        DeviceKeyFactory.DeviceIdentity identity = new DeviceKeyFactory(algorithm).generate(commonName);
+
+        // CertificationRequest ::= SEQUENCE { certificationRequestInfo, signatureAlgorithm, signature }
+        Der csr = Der.read(pemContent(identity.getCsrPem(), "CERTIFICATE REQUEST"), 0);
+        assertEquals(0x30, csr.tag);
+        assertEquals("trailing bytes after the request", csr.end(), csr.source.length);
+
+        List<Der> request = csr.children();
+        assertEquals(3, request.size());
+        Der info = request.get(0);
+        Der signatureAlgorithmId = request.get(1);
+        Der signature = request.get(2);
+
+        // CertificationRequestInfo ::= SEQUENCE { version, subject, subjectPKInfo, [0] attributes }
+        List<Der> fields = info.children();
+        assertEquals(4, fields.size());
+        assertArrayEquals(new byte[]{0}, fields.get(0).content());
+        assertEquals(commonName, commonName(fields.get(1)));
+        assertEquals(0xa0, fields.get(3).tag);
+
+        byte[] publicKeyInfo = fields.get(2).encoded();
+        assertArrayEquals(pemContent(identity.getPublicKeyPem(), "PUBLIC KEY"), publicKeyInfo);
+        PublicKey publicKey = KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(publicKeyInfo));
+
+        assertArrayEquals(signatureOid, signatureAlgorithmId.children().get(0).content());
+
+        // BIT STRING, no unused bits
+        byte[] bits = signature.content();
+        assertEquals(0x03, signature.tag);
+        assertEquals(0, bits[0]);
+
+        Signature verifier = Signature.getInstance(signatureAlgorithm);
+        verifier.initVerify(publicKey);
+        verifier.update(info.encoded());
+        assertTrue("the signature of the request is not verified",
+                verifier.verify(Arrays.copyOfRange(bits, 1, bits.length)));
+
+        // the private key is the one of the request
+        PrivateKey privateKey = KeyFactory.getInstance(keyAlgorithm).generatePrivate(
+                new PKCS8EncodedKeySpec(pemContent(identity.getPrivateKeyPem(), "PRIVATE KEY")));
+        byte[] message = "nightswatch".getBytes(StandardCharsets.US_ASCII);
+        Signature signer = Signature.getInstance(signatureAlgorithm);
+        signer.initSign(privateKey);
+        signer.update(message);
+        verifier.initVerify(publicKey);
+        verifier.update(message);
+        assertTrue("the private key does not match the request", verifier.verify(signer.sign()));
+    }
+
+    // Name ::= SEQUENCE OF SET OF SEQUENCE { type, value }
+    private static String commonName(final Der subject) {
+        for (Der rdn : subject.children()) {
+            for (Der attribute : rdn.children()) {
+                List<Der> typeAndValue = attribute.children();
+                if (Arrays.equals(CN_OID, typeAndValue.get(0).content()))
+                    return new String(typeAndValue.get(1).content(), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] pemContent(final String pem, final String type) {
+        String begin = String.format("-----BEGIN %s-----", type);
+        String end = String.format("-----END %s-----", type);
+        assertTrue(pem.startsWith(begin));
+        assertTrue(pem.trim().endsWith(end));
+        return Base64.getMimeDecoder().decode(pem.substring(begin.length(), pem.indexOf(end)));
+    }
+
+    /**
+     * A DER element, the definite lengths only.
+     */
+    private static class Der {
+        private final byte[] source;
+        private final int start;
+        private final int tag;
+        private final int contentStart;
+        private final int length;
+
+        private Der(final byte[] source, final int start, final int tag, final int contentStart, final int length) {
+            this.source = source;
+            this.start = start;
+            this.tag = tag;
+            this.contentStart = contentStart;
+            this.length = length;
+        }
+
+        private static Der read(final byte[] source, final int start) {
+            int tag = source[start] & 0xff;
+            int pos = start + 1;
+            int length = source[pos++] & 0xff;
+            if (length > 0x7f) {
+                int octets = length & 0x7f;
+                assertTrue("invalid DER length", octets >= 1 && octets <= 3);
+                length = 0;
+                for (int i = 0; i < octets; i++)
+                    length = length << 8 | source[pos++] & 0xff;
+            }
+            assertTrue("DER element beyond the source", pos + length <= source.length);
+            return new Der(source, start, tag, pos, length);
+        }
+
+        private int end() {
+            return this.contentStart + this.length;
+        }
+
+        private byte[] content() {
+            return Arrays.copyOfRange(this.source, this.contentStart, this.end());
+        }
+
+        private byte[] encoded() {
+            return Arrays.copyOfRange(this.source, this.start, this.end());
+        }
+
+        private List<Der> children() {
+            List<Der> children = new ArrayList<>();
+            for (int pos = this.contentStart; pos < this.end(); ) {
+                Der child = read(this.source, pos);
+                children.add(child);
+                pos = child.end();
+            }
+            assertEquals("DER children overrun the parent", this.end(),
+                    children.isEmpty() ? this.contentStart : children.get(children.size() - 1).end());
+            return children;
+        }
+    }
+}
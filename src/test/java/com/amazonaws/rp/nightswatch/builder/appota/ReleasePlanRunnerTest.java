@@ -0,0 +1,123 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReleasePlanRunnerTest {
+    private final static String PLAN = "{\"steps\": [" +
+            "{\"id\": \"asset\", \"command\": \"prepare-asset\"}," +
+            "{\"id\": \"v1\", \"command\": \"prepare-app-v1\", \"options\": [\"--create-job\"]}," +
+            "{\"id\": \"report\", \"command\": \"job-report\", \"after\": [\"v1\"]}" +
+            "]}";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumedFromStepsNotDone() throws IOException, InterruptedException {
+        File planFile = this.writePlan(PLAN);
+        File stateFile = new File(this.folder.getRoot(), "plan.state.json");
+
+        RecordingCommands commands = new RecordingCommands("job-report");
+        try {
+            new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 1, null, false));
+            fail("the failed step is not reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 steps of the plan failed"));
+        }
+        assertEquals(Arrays.asList("prepare-asset", "prepare-app-v1", "job-report"), commands.getRun());
+        assertTrue(stateFile.isFile());
+
+        // the steps succeeded are skipped, the failed one is run again
+        commands = new RecordingCommands();
+        new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 1, null, false));
+        assertEquals(Collections.singletonList("job-report"), commands.getRun());
+
+        // all done
+        commands = new RecordingCommands();
+        new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 1, null, false));
+        assertEquals(Collections.emptyList(), commands.getRun());
+    }
+
+    @Test
+    public void changedStepRunAgain() throws IOException, InterruptedException {
+        File planFile = this.writePlan(PLAN);
+        File stateFile = new File(this.folder.getRoot(), "plan.state.json");
+
+        new ReleasePlanRunner(new RecordingCommands())
+                .run(new ReleasePlanConfig(planFile, stateFile, 2, null, false));
+
+        this.writePlan(PLAN.replace("--create-job", "--patch"));
+        RecordingCommands commands = new RecordingCommands();
+        new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 2, null, false));
+        assertEquals(Collections.singletonList("prepare-app-v1"), commands.getRun());
+    }
+
+    @Test
+    public void restartedFromScratch() throws IOException, InterruptedException {
+        File planFile = this.writePlan(PLAN);
+        File stateFile = new File(this.folder.getRoot(), "plan.state.json");
+
+        new ReleasePlanRunner(new RecordingCommands())
+                .run(new ReleasePlanConfig(planFile, stateFile, 2, null, false));
+
+        RecordingCommands commands = new RecordingCommands();
+        new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 2, null, true));
+        assertEquals(Arrays.asList("prepare-asset", "prepare-app-v1", "job-report"), commands.getRun());
+    }
+
+    @Test
+    public void dependentsNotRunAfterFailure() throws IOException, InterruptedException {
+        File planFile = this.writePlan(PLAN);
+        File stateFile = new File(this.folder.getRoot(), "plan.state.json");
+
+        RecordingCommands commands = new RecordingCommands("prepare-app-v1");
+        try {
+            new ReleasePlanRunner(commands).run(new ReleasePlanConfig(planFile, stateFile, 2, true, false));
+            fail("the failed step is not reported");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 steps of the plan failed and 1 steps are not run"));
+        }
+        assertEquals(Arrays.asList("prepare-asset", "prepare-app-v1"), commands.getRun());
+    }
+
+    private File writePlan(final String plan) throws IOException {
+        File planFile = new File(this.folder.getRoot(), "plan.json");
+        Files.write(planFile.toPath(), plan.getBytes(StandardCharsets.UTF_8));
+        return planFile;
+    }
+
+    /**
+     * Records the commands run instead of running them, the given commands fail.
+     */
+    private static class RecordingCommands extends AppOTADemoCommands {
+        private final Set<String> failing;
+        private final List<String> run = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingCommands(final String... failing) {
+            super(AppOTADemoConfig.DEFAULT);
+            this.failing = new HashSet<>(Arrays.asList(failing));
+        }
+
+        @Override
+        public boolean run(final String command, final List<String> options) {
+            this.run.add(command);
+            if (this.failing.contains(command))
+                throw new IllegalStateException(String.format("command %s failed", command));
+            return true;
+        }
+
+        private List<String> getRun() {
+            return new ArrayList<>(this.run);
+        }
+    }
+}
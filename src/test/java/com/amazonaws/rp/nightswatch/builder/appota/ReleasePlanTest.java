@@ -0,0 +1,120 @@
+package com.amazonaws.rp.nightswatch.builder.appota;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ReleasePlanTest {
+    @Test
+    public void stepsOrdered() throws IOException {
+        ReleasePlan plan = ReleasePlan.parse("{\"steps\": [" +
+                "{\"id\": \"teardown\", \"command\": \"cleanup-asset\"}," +
+                "{\"id\": \"deploy-v2\", \"command\": \"prepare-app-v2\", \"after\": [\"deploy-v1\"]}," +
+                "{\"id\": \"report\", \"command\": \"job-report\", \"after\": [\"deploy-v2\"]}," +
+                "{\"id\": \"deploy-v1\", \"command\": \"prepare-app-v1\", \"options\": [\"--create-job\"]}," +
+                "{\"command\": \"prepare-asset\"}" +
+                "]}");
+
+        assertEquals(Arrays.asList("prepare-asset", "deploy-v1", "deploy-v2", "teardown", "report"),
+                ids(plan.getOrder()));
+
+        // listed and implied by the commands
+        assertEquals(set("prepare-asset", "deploy-v1", "deploy-v2"), plan.dependencies(step(plan, "teardown")));
+        assertEquals(set("deploy-v1", "prepare-asset"), plan.dependencies(step(plan, "deploy-v2")));
+        assertEquals(set("prepare-asset"), plan.dependencies(step(plan, "deploy-v1")));
+        assertEquals(set("deploy-v2"), plan.dependencies(step(plan, "report")));
+        assertEquals(set(), plan.dependencies(step(plan, "prepare-asset")));
+
+        List<String> order = ids(plan.getOrder());
+        for (ReleasePlan.Step step : plan.getSteps()) {
+            for (String dependency : plan.dependencies(step))
+                assertTrue(String.format("%s before %s", dependency, step.getId()),
+                        order.indexOf(dependency) < order.indexOf(step.getId()));
+        }
+
+        assertEquals(4, plan.getMaxParallel());
+        assertFalse(plan.isContinueOnError());
+    }
+
+    @Test
+    public void independentStepsInPlanOrder() throws IOException {
+        ReleasePlan plan = ReleasePlan.parse("{\"max_parallel\": 2, \"on_error\": \"continue\", \"steps\": [" +
+                "{\"id\": \"c\", \"command\": \"job-report\"}," +
+                "{\"id\": \"a\", \"command\": \"service-endpoint\"}," +
+                "{\"id\": \"b\", \"command\": \"job-report\"}" +
+                "]}");
+
+        assertEquals(Arrays.asList("c", "a", "b"), ids(plan.getOrder()));
+        assertEquals(2, plan.getMaxParallel());
+        assertTrue(plan.isContinueOnError());
+    }
+
+    @Test
+    public void listedCycleRejected() {
+        assertRejected("{\"steps\": [" +
+                "{\"id\": \"a\", \"command\": \"job-report\", \"after\": [\"c\"]}," +
+                "{\"id\": \"b\", \"command\": \"job-report\", \"after\": [\"a\"]}," +
+                "{\"id\": \"c\", \"command\": \"job-report\", \"after\": [\"b\"]}" +
+                "]}", "cycle");
+    }
+
+    @Test
+    public void impliedCycleRejected() {
+        // the application steps follow the asset steps already
+        assertRejected("{\"steps\": [" +
+                "{\"id\": \"asset\", \"command\": \"prepare-asset\", \"after\": [\"v1\"]}," +
+                "{\"id\": \"v1\", \"command\": \"prepare-app-v1\"}" +
+                "]}", "cycle");
+    }
+
+    @Test
+    public void selfDependencyRejected() {
+        assertRejected("{\"steps\": [{\"id\": \"a\", \"command\": \"job-report\", \"after\": [\"a\"]}]}", "cycle");
+    }
+
+    @Test
+    public void invalidPlansRejected() {
+        assertRejected("{\"steps\": [{\"command\": \"job-report\", \"after\": [\"x\"]}]}", "unknown step x");
+        assertRejected("{\"steps\": [{\"command\": \"job-report\"}, {\"command\": \"job-report\"}]}",
+                "duplicate step job-report");
+        assertRejected("{\"steps\": [{\"command\": \"run-plan\"}]}", "invalid command run-plan");
+        assertRejected("{\"steps\": [{\"command\": \"deploy\"}]}", "invalid command deploy");
+        assertRejected("{\"on_error\": \"ignore\", \"steps\": [{\"command\": \"job-report\"}]}", "invalid on_error");
+        assertRejected("{\"max_parallel\": 0, \"steps\": [{\"command\": \"job-report\"}]}", "invalid parallelism");
+        assertRejected("{\"steps\": []}", "no step");
+        assertRejected("[]", "invalid release plan");
+    }
+
+    private static void assertRejected(final String plan, final String message) {
+        try {
+            ReleasePlan.parse(plan);
+            fail(String.format("plan %s is accepted", plan));
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static ReleasePlan.Step step(final ReleasePlan plan, final String id) {
+        for (ReleasePlan.Step step : plan.getSteps()) {
+            if (step.getId().equals(id))
+                return step;
+        }
+        throw new AssertionError(String.format("step %s is not found", id));
+    }
+
+    private static List<String> ids(final Collection<ReleasePlan.Step> steps) {
+        List<String> ids = new ArrayList<>();
+        for (ReleasePlan.Step step : steps)
+            ids.add(step.getId());
+        return ids;
+    }
+
+    private static Set<String> set(final String... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
@@ -0,0 +1,135 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalBrokerTest {
+    private LocalBroker broker;
+    // topic filter -> topics delivered
+    private final Map<String, List<String>> delivered = Collections.synchronizedMap(new HashMap<>());
+
+    @Before
+    public void setUp() {
+        this.broker = new LocalBroker(4);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        this.broker.shutdown();
+    }
+
+    @Test
+    public void exactFilter() throws InterruptedException {
+        assertMatches("a/b/c", "a/b/c");
+        assertNotMatches("a/b/c", "a/b", "a/b/c/d", "a/b/x", "a//c");
+    }
+
+    @Test
+    public void singleLevelWildcard() throws InterruptedException {
+        assertMatches("a/+/c", "a/b/c", "a/x/c", "a//c");
+        assertNotMatches("a/+/c", "a/c", "a/b/x/c", "a/b/c/d");
+
+        assertMatches("+", "a", "b");
+        assertNotMatches("+", "a/b", "/a");
+
+        // an empty level is a level
+        assertMatches("a/+", "a/b", "a/");
+        assertNotMatches("a/+", "a", "a/b/c");
+    }
+
+    @Test
+    public void multiLevelWildcard() throws InterruptedException {
+        // the parent level as well as any number of levels below
+        assertMatches("a/#", "a", "a/b", "a/b/c", "a/");
+        assertNotMatches("a/#", "b", "b/a", "ab");
+
+        assertMatches("#", "a", "a/b/c", "$aws/things/dev-1/jobs/notify-next");
+
+        assertMatches("a/+/#", "a/b", "a/b/c/d");
+        assertNotMatches("a/+/#", "a", "b/c");
+    }
+
+    @Test
+    public void jobsTopics() throws InterruptedException {
+        assertMatches("$aws/things/+/jobs/+/update",
+                "$aws/things/dev-1/jobs/job-1/update", "$aws/things/dev-2/jobs/job-2/update");
+        assertNotMatches("$aws/things/+/jobs/+/update",
+                "$aws/things/dev-1/jobs/job-1/update/accepted", "$aws/things/dev-1/jobs/start-next");
+    }
+
+    @Test
+    public void overlappingFiltersEachDelivered() throws InterruptedException {
+        for (String filter : Arrays.asList("a/b", "a/+", "a/#", "+/b", "#", "a/b/c"))
+            this.subscribe(filter);
+
+        this.publish("a/b");
+        this.broker.shutdown();
+
+        for (String filter : Arrays.asList("a/b", "a/+", "a/#", "+/b", "#"))
+            assertEquals(filter, Collections.singletonList("a/b"), this.delivered(filter));
+        assertEquals(Collections.emptyList(), this.delivered("a/b/c"));
+
+        assertEquals(1, this.broker.getPublished());
+        assertEquals(5, this.broker.getDelivered());
+    }
+
+    @Test
+    public void deliveredInOrderPublished() throws InterruptedException {
+        List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+        this.broker.subscribe("dev-1", "$aws/things/dev-1/jobs/#", m -> payloads.add(m.getStringPayload()));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(String.valueOf(i));
+            this.broker.publish(new AWSIotMessage(String.format("$aws/things/dev-1/jobs/job-%d/update", i % 7),
+                    AWSIotQos.QOS1, String.valueOf(i)));
+        }
+        this.broker.shutdown();
+
+        assertEquals(expected, payloads);
+    }
+
+    private void assertMatches(final String filter, final String... topics) throws InterruptedException {
+        assertEquals(String.format("topics matching %s", filter), Arrays.asList(topics),
+                this.deliver(filter, topics));
+    }
+
+    private void assertNotMatches(final String filter, final String... topics) throws InterruptedException {
+        assertEquals(String.format("topics matching %s", filter), Collections.emptyList(),
+                this.deliver(filter, topics));
+    }
+
+    // a broker of its own, the filter is the only subscription
+    private List<String> deliver(final String filter, final String... topics) throws InterruptedException {
+        this.broker.shutdown();
+        this.broker = new LocalBroker(1);
+        this.delivered.clear();
+
+        this.subscribe(filter);
+        for (String topic : topics)
+            this.publish(topic);
+        this.broker.shutdown();
+
+        return this.delivered(filter);
+    }
+
+    private void subscribe(final String filter) {
+        this.broker.subscribe(filter, filter, m -> this.delivered.computeIfAbsent(filter,
+                f -> Collections.synchronizedList(new ArrayList<>())).add(m.getTopic()));
+    }
+
+    private void publish(final String topic) {
+        this.broker.publish(new AWSIotMessage(topic, AWSIotQos.QOS1, new byte[0]));
+    }
+
+    private List<String> delivered(final String filter) {
+        return new ArrayList<>(this.delivered.getOrDefault(filter, Collections.emptyList()));
+    }
+}
@@ -0,0 +1,209 @@
+package com.amazonaws.rp.nightswatch.builder.simulator;
+
+import com.amazonaws.services.iot.client.AWSIotMessage;
+import com.amazonaws.services.iot.client.AWSIotQos;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SimulatedJobsServiceTest {
+    private final static ObjectMapper JSON = new ObjectMapper();
+    private final static byte[] JOB_DOC = "{\"operate\": \"deploy_app_pkg\"}".getBytes(StandardCharsets.UTF_8);
+
+    private LocalBroker broker;
+    private ScheduledExecutorService scheduler;
+    private SimulatedJobsService service;
+
+    @Before
+    public void setUp() {
+        this.broker = new LocalBroker(4);
+        this.scheduler = Executors.newScheduledThreadPool(4);
+        this.service = new SimulatedJobsService(this.broker, this.scheduler);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        // no more publishing to the broker stopped
+        this.scheduler.shutdownNow();
+        this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        this.broker.shutdown();
+    }
+
+    @Test
+    public void rolloutAtRate() throws IOException, InterruptedException {
+        List<Device> devices = this.connect(20);
+
+        // 2 executions a tick of 100 ms, the first 2 are created at once and the last 2 in 0.9 seconds
+        this.service.createJob("job-1", JOB_DOC, thingNames(devices), 1200, null);
+        assertTrue(this.service.awaitJobs(10, TimeUnit.SECONDS));
+
+        JobStats stats = this.service.getJobStats().get(0);
+        assertEquals("job-1", stats.getJobId());
+        assertEquals(20, stats.getTargets());
+        assertEquals(20, stats.getFinished());
+        assertEquals(Collections.singletonMap("SUCCEEDED", 20), stats.getStatuses());
+        assertTrue(String.format("rolled out in %.3f seconds", stats.durationSeconds()),
+                stats.durationSeconds() >= 0.8);
+
+        for (Device device : devices)
+            assertEquals(Collections.singletonList("job-1"), device.getStarted());
+    }
+
+    @Test
+    public void inProgressTimeout() throws IOException, InterruptedException {
+        List<Device> devices = this.connect(4);
+
+        // reported after the timeout, rejected as the execution is timed out already
+        devices.get(0).outcome("job-1", "SUCCEEDED", 600);
+        devices.get(1).outcome("job-1", "SUCCEEDED", 600);
+        devices.get(2).outcome("job-1", "FAILED", 0);
+
+        this.service.createJob("job-1", JOB_DOC, thingNames(devices), null, Duration.ofMillis(200));
+        this.service.createJob("job-2", JOB_DOC, thingNames(devices), null, null);
+        assertTrue(this.service.awaitJobs(10, TimeUnit.SECONDS));
+
+        List<JobStats> jobs = this.service.getJobStats();
+        assertEquals(2, jobs.size());
+
+        JobStats job1 = jobs.get(0);
+        assertEquals("job-1", job1.getJobId());
+        assertEquals(4, job1.getFinished());
+        assertEquals(1, job1.count("SUCCEEDED"));
+        assertEquals(1, job1.count("FAILED"));
+        assertEquals(2, job1.count("TIMED_OUT"));
+
+        JobStats job2 = jobs.get(1);
+        assertEquals("job-2", job2.getJobId());
+        assertEquals(Collections.singletonMap("SUCCEEDED", 4), job2.getStatuses());
+
+        // the next execution is notified while the late devices are busy, and started after they report
+        for (Device device : devices)
+            assertEquals(Arrays.asList("job-1", "job-2"), device.getStarted());
+
+        for (int i = 0; i < devices.size(); i++)
+            assertEquals(i < 2 ? 1 : 0, devices.get(i).getRejected());
+    }
+
+    private List<Device> connect(final int count) {
+        List<Device> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Device device = new Device(String.format("nw-sim-dev-%06d", i));
+            device.connect();
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    private static List<String> thingNames(final List<Device> devices) {
+        List<String> thingNames = new ArrayList<>();
+        for (Device device : devices)
+            thingNames.add(device.thingName);
+        return thingNames;
+    }
+
+    /**
+     * Follows the jobs topics as the Ranger daemon does, reports the outcome given to the job, SUCCEEDED by default.
+     */
+    private class Device {
+        private final String thingName;
+        // job ID -> status, delay in ms
+        private final Map<String, Map.Entry<String, Long>> outcomes = new ConcurrentHashMap<>();
+        private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger rejected = new AtomicInteger();
+
+        private String busyJobId;
+        private boolean nextPending;
+
+        private Device(final String thingName) {
+            this.thingName = thingName;
+        }
+
+        private void outcome(final String jobId, final String status, final long delayMillis) {
+            this.outcomes.put(jobId, new AbstractMap.SimpleEntry<>(status, delayMillis));
+        }
+
+        private void connect() {
+            String prefix = String.format("$aws/things/%s/jobs", this.thingName);
+            broker.subscribe(this.thingName, prefix + "/notify-next", this::onNotifyNext);
+            broker.subscribe(this.thingName, prefix + "/start-next/accepted", this::onStartNextAccepted);
+            broker.subscribe(this.thingName, prefix + "/+/update/accepted", m -> this.onUpdateDone());
+            broker.subscribe(this.thingName, prefix + "/+/update/rejected", m -> {
+                this.rejected.incrementAndGet();
+                this.onUpdateDone();
+            });
+
+            this.publish("start-next", JSON.createObjectNode());
+        }
+
+        private synchronized void onNotifyNext(final AWSIotMessage message) {
+            if (!parse(message).has("execution"))
+                return;
+
+            if (this.busyJobId == null)
+                this.publish("start-next", JSON.createObjectNode());
+            else
+                this.nextPending = true;
+        }
+
+        private synchronized void onStartNextAccepted(final AWSIotMessage message) {
+            String jobId = parse(message).path("execution").path("jobId").asText(null);
+            if (jobId == null || jobId.equals(this.busyJobId))
+                return;
+
+            this.busyJobId = jobId;
+            this.started.add(jobId);
+
+            Map.Entry<String, Long> outcome = this.outcomes.getOrDefault(jobId,
+                    new AbstractMap.SimpleEntry<>("SUCCEEDED", 0L));
+            ObjectNode update = JSON.createObjectNode();
+            update.put("status", outcome.getKey());
+            scheduler.schedule(() -> this.publish(String.format("%s/update", jobId), update),
+                    outcome.getValue(), TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void onUpdateDone() {
+            this.busyJobId = null;
+            if (this.nextPending) {
+                this.nextPending = false;
+                this.publish("start-next", JSON.createObjectNode());
+            }
+        }
+
+        private List<String> getStarted() {
+            return new ArrayList<>(this.started);
+        }
+
+        private int getRejected() {
+            return this.rejected.get();
+        }
+
+        private void publish(final String suffix, final JsonNode payload) {
+            try {
+                broker.publish(new AWSIotMessage(String.format("$aws/things/%s/jobs/%s", this.thingName, suffix),
+                        AWSIotQos.QOS1, JSON.writeValueAsBytes(payload)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private JsonNode parse(final AWSIotMessage message) {
+            try {
+                return JSON.readTree(message.getPayload());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
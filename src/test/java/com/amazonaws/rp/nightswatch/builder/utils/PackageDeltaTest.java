@@ -0,0 +1,102 @@
+package com.amazonaws.rp.nightswatch.builder.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PackageDeltaTest {
+    private final Random random = new Random(20191205);
+
+    @Test
+    public void roundTripEmpty() throws IOException {
+        assertRoundTrip(new byte[0], new byte[0]);
+    }
+
+    @Test
+    public void roundTripEmptyBase() throws IOException {
+        assertRoundTrip(new byte[0], this.randomBytes(1000));
+    }
+
+    @Test
+    public void roundTripEmptyTarget() throws IOException {
+        assertRoundTrip(this.randomBytes(1000), new byte[0]);
+    }
+
+    @Test
+    public void roundTripShorterThanBlock() throws IOException {
+        assertRoundTrip("base".getBytes(StandardCharsets.US_ASCII), "target".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void roundTripIdentical() throws IOException {
+        byte[] content = this.randomBytes(256 * 1024);
+        byte[] patch = assertRoundTrip(content, content.clone());
+
+        // copied as a whole, no byte inserted
+        assertTrue(String.format("patch of %d bytes for the identical content", patch.length), patch.length < 256);
+    }
+
+    @Test
+    public void roundTripDisjoint() throws IOException {
+        assertRoundTrip(this.randomBytes(64 * 1024), this.randomBytes(64 * 1024));
+    }
+
+    @Test
+    public void roundTripModified() throws IOException {
+        byte[] base = this.randomBytes(256 * 1024);
+
+        // a block replaced, one inserted, one removed, and the tail appended
+        byte[] target = concat(
+                Arrays.copyOfRange(base, 0, 1000),
+                this.randomBytes(100),
+                Arrays.copyOfRange(base, 1100, 50000),
+                this.randomBytes(3333),
+                Arrays.copyOfRange(base, 50000, 120000),
+                Arrays.copyOfRange(base, 130000, base.length),
+                this.randomBytes(777));
+
+        byte[] patch = assertRoundTrip(base, target);
+        assertTrue(String.format("patch of %d bytes for the modified content", patch.length), patch.length < 8192);
+    }
+
+    @Test(expected = IOException.class)
+    public void applyToOtherBase() throws IOException {
+        byte[] base = this.randomBytes(4096);
+        byte[] patch = PackageDelta.diff(base, Arrays.copyOfRange(base, 0, 2048));
+
+        // the copy runs beyond the shorter base
+        PackageDelta.apply(Arrays.copyOfRange(base, 0, 1024), patch);
+    }
+
+    private static byte[] assertRoundTrip(final byte[] base, final byte[] target) throws IOException {
+        byte[] patch = PackageDelta.diff(base, target);
+        assertArrayEquals(target, PackageDelta.apply(base, patch));
+        return patch;
+    }
+
+    private byte[] randomBytes(final int size) {
+        byte[] content = new byte[size];
+        this.random.nextBytes(content);
+        return content;
+    }
+
+    private static byte[] concat(final byte[]... parts) {
+        int size = 0;
+        for (byte[] part : parts)
+            size += part.length;
+
+        byte[] content = new byte[size];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, content, pos, part.length);
+            pos += part.length;
+        }
+        return content;
+    }
+}